@@ -0,0 +1,75 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bartoszlipinski.flippablestackview.benchmark;
+
+import com.bartoszlipinski.flippablestackview.utilities.StackTransformation;
+
+/**
+ * Page without any Android dependency, only storing the properties it's given.
+ */
+public class FakePage implements StackTransformation.Page {
+
+    public final int width;
+    public final int height;
+
+    public float alpha;
+    public float scaleX;
+    public float scaleY;
+    public float pivotX;
+    public float pivotY;
+    public float rotation;
+    public float translation;
+
+    public FakePage(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void setAlpha(float alpha) {
+        this.alpha = alpha;
+    }
+
+    @Override
+    public void setScaleX(float scaleX) {
+        this.scaleX = scaleX;
+    }
+
+    @Override
+    public void setScaleY(float scaleY) {
+        this.scaleY = scaleY;
+    }
+
+    @Override
+    public void setPivotX(float pivotX) {
+        this.pivotX = pivotX;
+    }
+
+    @Override
+    public void setPivotY(float pivotY) {
+        this.pivotY = pivotY;
+    }
+
+    @Override
+    public void setRotation(float rotation) {
+        this.rotation = rotation;
+    }
+
+    @Override
+    public void setTranslation(float translation) {
+        this.translation = translation;
+    }
+}
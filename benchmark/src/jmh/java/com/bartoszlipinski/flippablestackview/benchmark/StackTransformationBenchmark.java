@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bartoszlipinski.flippablestackview.benchmark;
+
+import com.bartoszlipinski.flippablestackview.utilities.StackTransformation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of transforming the pages of a stack (the work <code>StackPageTransformer</code> does on
+ * every frame of a flip), with the pages replaced by {@link FakePage}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StackTransformationBenchmark {
+
+    private static final int PAGE_WIDTH = 1080;
+    private static final int PAGE_HEIGHT = 1920;
+
+    // Fraction of a flip the frames are taken at.
+    private static final float FLIP_PROGRESS = 0.37f;
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int numberOfStacked;
+
+    @Param({"VERTICAL", "HORIZONTAL"})
+    public String orientation;
+
+    @Param({"false", "true"})
+    public boolean useEasingTables;
+
+    private StackTransformation mTransformation;
+    private FakePage[] mPages;
+    private float[] mPositions;
+    private FakePage mFlippingPage;
+    private float mFlippingPosition;
+    private float mStackedPosition;
+
+    @Setup
+    public void setUp() {
+        mTransformation = new StackTransformation(numberOfStacked, "VERTICAL".equals(orientation), 0.8f, 0.7f, 0.4f, 0.5f);
+        mTransformation.setUseEasingTables(useEasingTables);
+
+        // Pages attached to the pager: the stacked ones, the current one, the flipping one
+        // and a hidden one on each side.
+        final int count = numberOfStacked + 4;
+        mPages = new FakePage[count];
+        mPositions = new float[count];
+        for (int i = 0; i < count; i++) {
+            mPages[i] = new FakePage(PAGE_WIDTH, PAGE_HEIGHT);
+            mPositions[i] = i - (numberOfStacked + 2) + FLIP_PROGRESS;
+        }
+        mFlippingPage = new FakePage(PAGE_WIDTH, PAGE_HEIGHT);
+        mFlippingPosition = FLIP_PROGRESS;
+        mStackedPosition = FLIP_PROGRESS - 1;
+        mTransformation.prepare("VERTICAL".equals(orientation) ? PAGE_HEIGHT : PAGE_WIDTH);
+    }
+
+    /**
+     * Whole frame: every attached page transformed once.
+     */
+    @Benchmark
+    public void transformFrame() {
+        final FakePage[] pages = mPages;
+        final float[] positions = mPositions;
+        for (int i = 0; i < pages.length; i++) {
+            final FakePage page = pages[i];
+            mTransformation.transform(page, page.width, page.height, positions[i]);
+        }
+    }
+
+    /**
+     * The page that's being flipped, the most expensive one to transform.
+     */
+    @Benchmark
+    public FakePage transformFlippingPage() {
+        mTransformation.transform(mFlippingPage, PAGE_WIDTH, PAGE_HEIGHT, mFlippingPosition);
+        return mFlippingPage;
+    }
+
+    @Benchmark
+    public float calculateShiftForScale() {
+        return mTransformation.calculateShiftForScale(mStackedPosition, 0.75f);
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.view.ViewPager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.DRAG_FRAMES;
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.FRAME_DURATION;
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.START_ITEM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drags and settles a <code>FlippableStackView</code> with the allocation check on, for each
+ * {@link FlippableStackView.LayerPolicy}. Allocation counting needs a real runtime, hence an
+ * instrumentation test.
+ * <p/>
+ * An allocating frame throws from the UI thread: from a drag step it fails the test, from a
+ * drawn or settling frame it crashes the instrumentation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AllocationCheckTest {
+
+    private static final int STACK_DEPTH = 3;
+    private static final int SETTLE_TIMEOUT = 5000; // ms
+
+    @Rule
+    public ActivityTestRule<StackTestActivity> mActivityRule = new ActivityTestRule<StackTestActivity>(StackTestActivity.class);
+
+    private Instrumentation mInstrumentation;
+    private FlippableStackView mStack;
+    private volatile int mScrollState = OrientedViewPager.SCROLL_STATE_IDLE;
+
+    @Test
+    public void noLayers() {
+        checkDragAndSettle(FlippableStackView.LayerPolicy.NONE);
+    }
+
+    @Test
+    public void allPagesOnLayers() {
+        checkDragAndSettle(FlippableStackView.LayerPolicy.ALL_PAGES);
+    }
+
+    @Test
+    public void flippingPageOnLayer() {
+        checkDragAndSettle(FlippableStackView.LayerPolicy.FLIPPING_PAGE);
+    }
+
+    private void checkDragAndSettle(final FlippableStackView.LayerPolicy layerPolicy) {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final StackTestActivity activity = mActivityRule.getActivity();
+                mStack = new FlippableStackView(activity);
+                mStack.initStack(STACK_DEPTH);
+                mStack.setLayerPolicy(layerPolicy);
+                mStack.setAdapter(new StackTestFixture.ColorAdapter());
+                mStack.setCurrentItem(START_ITEM, false);
+                mStack.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+                    @Override
+                    public void onPageScrollStateChanged(int state) {
+                        mScrollState = state;
+                    }
+                });
+                activity.setContentView(mStack);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        // Warms up the pages, their layers and the pager's own buffers
+        flip();
+        setCurrentItem(START_ITEM + 2);
+
+        setAllocationCheckEnabled(true);
+        try {
+            flip();
+            setCurrentItem(START_ITEM + 4);
+        } finally {
+            setAllocationCheckEnabled(false);
+        }
+        assertEquals(START_ITEM + 4, getCurrentItem());
+    }
+
+    /**
+     * Drags the current page away, far enough to flip it, and waits for the settle.
+     */
+    private void flip() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mStack.beginFakeDrag();
+            }
+        });
+        final float step = StackTestFixture.getDragStep(mStack.getHeight());
+        for (int i = 0; i < DRAG_FRAMES; i++) {
+            SystemClock.sleep(FRAME_DURATION);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mStack.fakeDragBy(step);
+                }
+            });
+        }
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mStack.endFakeDrag();
+            }
+        });
+        waitForSettle();
+    }
+
+    private void setCurrentItem(final int item) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mStack.setCurrentItem(item, true);
+            }
+        });
+        waitForSettle();
+    }
+
+    private void waitForSettle() {
+        final long timeout = SystemClock.uptimeMillis() + SETTLE_TIMEOUT;
+        while (mScrollState != OrientedViewPager.SCROLL_STATE_IDLE) {
+            assertTrue("The stack didn't settle", SystemClock.uptimeMillis() < timeout);
+            SystemClock.sleep(FRAME_DURATION);
+        }
+        mInstrumentation.waitForIdleSync();
+    }
+
+    private void setAllocationCheckEnabled(final boolean enabled) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mStack.setAllocationCheckEnabled(enabled);
+            }
+        });
+    }
+
+    private int getCurrentItem() {
+        final int[] item = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                item[0] = mStack.getCurrentItem();
+            }
+        });
+        return item[0];
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.os.Debug;
+
+/**
+ * Fails when the per-frame work of a dragged or settling pager allocates. Counts are taken
+ * with {@link Debug#getThreadAllocCount()}, so they include everything done on the UI thread
+ * within a checked section, drawing of the pages included.
+ * <p/>
+ * Sections can nest, only the outermost one is checked. A section during which pages were
+ * created or destroyed is not a steady-state frame and may allocate.
+ */
+class AllocationChecker {
+
+    private int mDepth;
+    private int mStartCount;
+    private boolean mSkipped;
+    private boolean mCounting;
+
+    void start() {
+        if (!mCounting) {
+            Debug.startAllocCounting();
+            mCounting = true;
+        }
+    }
+
+    void stop() {
+        if (mCounting) {
+            Debug.stopAllocCounting();
+            mCounting = false;
+        }
+        mDepth = 0;
+    }
+
+    void beginSection() {
+        if (mDepth++ == 0) {
+            mSkipped = false;
+            mStartCount = Debug.getThreadAllocCount();
+        }
+    }
+
+    /**
+     * @param section Name of the checked section, used in the failure message.
+     */
+    void endSection(String section) {
+        if (mDepth == 0 || --mDepth > 0) {
+            return;
+        }
+        final int allocated = Debug.getThreadAllocCount() - mStartCount;
+        if (allocated > 0 && !mSkipped) {
+            throw new IllegalStateException(this.getClass().getSimpleName() + ": " + allocated
+                    + " object(s) allocated in " + section + " during a steady-state frame.");
+        }
+    }
+
+    /**
+     * Exempts the current section from the check.
+     */
+    void skipSection() {
+        mSkipped = true;
+    }
+}
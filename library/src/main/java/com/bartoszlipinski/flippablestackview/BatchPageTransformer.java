@@ -0,0 +1,38 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.view.View;
+
+/**
+ * A page transformer that is handed all the attached pages of an <code>OrientedViewPager</code>
+ * in a single call, so that values shared by every page of a frame are only derived once.
+ */
+public interface BatchPageTransformer {
+
+    /**
+     * Apply a property transformation to all the attached (non-decor) pages.
+     *
+     * @param scroll    Current scroll offset of the pager (in pixels, along its orientation).
+     * @param pages     Pages to transform. Only the first <code>count</code> entries are valid.
+     * @param positions Position of each page relative to the current front-and-center position
+     *                  of the pager. 0 is front and center. 1 is one full page position to the
+     *                  right (or bottom), and -1 is one page position to the left (or top).
+     * @param count     Number of pages to transform.
+     */
+    public void transformPages(int scroll, View[] pages, float[] positions, int count);
+}
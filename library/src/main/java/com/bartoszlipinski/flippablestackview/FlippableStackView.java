@@ -16,19 +16,108 @@
 
 package com.bartoszlipinski.flippablestackview;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.support.v4.view.PagerAdapter;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
 
 /**
  * Created by Bartosz Lipinski
  * 31.01.15
  */
 public class FlippableStackView extends OrientedViewPager {
+
+    public enum LayerPolicy {
+        /**
+         * Pages are never put on hardware layers.
+         */
+        NONE,
+        /**
+         * All the pages are put on hardware layers while the stack is being scrolled.
+         */
+        ALL_PAGES,
+        /**
+         * Only the page that is being flipped (rotated and faded out) is put on a hardware layer.
+         */
+        FLIPPING_PAGE
+    }
+
+    public enum IndexingMode {
+        /**
+         * Adapter position 0 is the bottom of the stack and position
+         * <code>getCount() - 1</code> is the top card (shown first).
+         */
+        BOTTOM_FIRST,
+        /**
+         * Adapter position 0 is the top card (shown first). Cards inserted at the top of the
+         * stack don't move any of the pages already in it, so the adapter can keep returning
+         * <code>POSITION_UNCHANGED</code> for them.
+         */
+        TOP_FIRST
+    }
+
     private static final float DEFAULT_CURRENT_PAGE_SCALE = 0.8f;
     private static final float DEFAULT_TOP_STACKED_SCALE = 0.7f;
     private static final float DEFAULT_OVERLAP_FACTOR = 0.4f;
 
+    private StackPageTransformer mStackPageTransformer;
+    private boolean mUseEasingTables;
+    private boolean mClipStackedPages;
+
+    private final Rect mClipBounds = new Rect();
+
+    private boolean mSnapshotStackedPages;
+    private final SparseArray<PageSnapshot> mSnapshots = new SparseArray<PageSnapshot>();
+    private final Paint mSnapshotPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private LayerPolicy mLayerPolicy = LayerPolicy.ALL_PAGES;
+    private boolean mLayersEnabled;
+
+    private boolean mTrimmed;
+    private int mUntrimmedLimitBefore;
+    private int mUntrimmedLimitAfter;
+
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            // The window is only shrunk in the foreground when the system is about to start
+            // killing processes, as it only grows back on the next touch.
+            if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+                trimMemory(true);
+            } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+                trimMemory(false);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(true);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private final MessageQueue.IdleHandler mUntrimIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            untrim();
+            return false;
+        }
+    };
+
     public FlippableStackView(Context context) {
         super(context);
     }
@@ -77,13 +166,432 @@ public class FlippableStackView extends OrientedViewPager {
      */
     public void initStack(int numberOfStacked, StackPageTransformer.Orientation orientation, float currentPageScale, float topStackedScale, float overlapFactor, StackPageTransformer.Gravity gravity) {
         setOrientation(orientation.getViewPagerOrientation());
-        setPageTransformer(false, new StackPageTransformer(numberOfStacked, orientation, currentPageScale, topStackedScale, overlapFactor, gravity));
-        setOffscreenPageLimit(numberOfStacked + 1);
+        mStackPageTransformer = new StackPageTransformer(numberOfStacked, orientation, currentPageScale, topStackedScale, overlapFactor, gravity, mUseEasingTables);
+        setPageTransformer(false, mStackPageTransformer);
+        // Only the stacked pages and the one being flipped are ever visible.
+        setOffscreenPageLimits(mStackPageTransformer.getVisiblePagesBefore(), mStackPageTransformer.getVisiblePagesAfter());
+    }
+
+    /**
+     * Used to decide whether the flip curves should be read from precomputed lookup tables
+     * instead of being evaluated on every frame. Can be called before or after
+     * <code>initStack</code>.
+     *
+     * @param useEasingTables True to use the lookup tables (see
+     *                        {@link StackPageTransformer#EASING_TABLE_INTERVALS}).
+     */
+    public void setUseEasingTables(boolean useEasingTables) {
+        mUseEasingTables = useEasingTables;
+        if (mStackPageTransformer != null) {
+            mStackPageTransformer.setUseEasingTables(useEasingTables);
+        }
+    }
+
+    /**
+     * Used to reduce overdraw of the stack: when enabled, each stacked page is clipped to the
+     * sliver that is not covered by the page above it. Intended for opaque pages - with this
+     * mode on, stacked pages no longer show through the (partially transparent) pages above
+     * them.
+     *
+     * @param clipStackedPages True to clip the stacked pages.
+     */
+    public void setClipStackedPages(boolean clipStackedPages) {
+        if (mClipStackedPages != clipStackedPages) {
+            mClipStackedPages = clipStackedPages;
+            invalidate();
+        }
+    }
+
+    public boolean isClippingStackedPages() {
+        return mClipStackedPages;
+    }
+
+    /**
+     * Used to draw the stacked pages (the ones under the current page) from bitmap snapshots,
+     * instead of redrawing their whole view hierarchies on every frame. A page is drawn live
+     * again as soon as it becomes the current page.
+     * <p/>
+     * Snapshots are retaken when the adapter notifies about a data set change (or, with a
+     * {@link RecyclingStackAdapter}, about a changed item), or when a page changes its size.
+     * A page invalidating itself isn't enough: the stack can't tell that apart from the
+     * property changes of the page's own transformation. So any other change of a stacked
+     * page's content (e.g. an image loaded into it, or an animation running in it) has to be
+     * reported with {@link #invalidateSnapshot(int)}, until then the page shows its old content.
+     * Every snapshot is a full-size ARGB_8888 bitmap of a page, so this mode trades memory for
+     * draw time. While memory is critically low, the stacked pages are drawn live instead.
+     *
+     * @param snapshotStackedPages True to draw the stacked pages from snapshots.
+     */
+    public void setSnapshotStackedPages(boolean snapshotStackedPages) {
+        if (mSnapshotStackedPages != snapshotStackedPages) {
+            mSnapshotStackedPages = snapshotStackedPages;
+            if (!snapshotStackedPages) {
+                mSnapshots.clear();
+            }
+            invalidate();
+        }
+    }
+
+    public boolean isSnapshottingStackedPages() {
+        return mSnapshotStackedPages;
     }
 
+    /**
+     * Used to notify that the content of the page at the given adapter position has changed,
+     * so its snapshot has to be retaken (see {@link #setSnapshotStackedPages(boolean)}).
+     *
+     * @param position Adapter position of the page.
+     */
+    public void invalidateSnapshot(int position) {
+        final PageSnapshot snapshot = mSnapshots.get(adapterPosition(position));
+        if (snapshot != null) {
+            snapshot.mValid = false;
+            invalidate();
+        }
+    }
+
+    /**
+     * Used to notify that the content of all the pages has changed, so all the snapshots have to
+     * be retaken (see {@link #setSnapshotStackedPages(boolean)}).
+     */
+    public void invalidateSnapshots() {
+        for (int i = 0; i < mSnapshots.size(); i++) {
+            mSnapshots.valueAt(i).mValid = false;
+        }
+        invalidate();
+    }
+
+    /**
+     * Used to decide which end of the stack adapter position 0 is at. In
+     * {@link IndexingMode#TOP_FIRST} mode all the positions (of the current item, the page change
+     * listener and the saved state) are adapter positions, while
+     * <code>getItemPosition</code> returning <code>POSITION_UNCHANGED</code> means that the page
+     * keeps its place counted from the bottom of the stack. Default is
+     * {@link IndexingMode#BOTTOM_FIRST}. Setting a different mode resets the stack to its top card.
+     *
+     * @param indexingMode Mode to use.
+     */
+    public void setIndexingMode(IndexingMode indexingMode) {
+        if (indexingMode == null) {
+            throw new IllegalArgumentException(this.getClass().getSimpleName() + ": Indexing mode can't be null.");
+        }
+        setReverseAdapterPositions(indexingMode == IndexingMode.TOP_FIRST);
+    }
+
+    public IndexingMode getIndexingMode() {
+        return isReversingAdapterPositions() ? IndexingMode.TOP_FIRST : IndexingMode.BOTTOM_FIRST;
+    }
+
+    /**
+     * Used to decide which pages are put on hardware layers while the stack is being scrolled.
+     * The layers are built as soon as the stack is touched, so that the first frame of a drag
+     * doesn't pay for their creation. Default is {@link LayerPolicy#ALL_PAGES}.
+     *
+     * @param layerPolicy Policy to use.
+     */
+    public void setLayerPolicy(LayerPolicy layerPolicy) {
+        if (layerPolicy == null) {
+            throw new IllegalArgumentException(this.getClass().getSimpleName() + ": Layer policy can't be null.");
+        }
+        mLayerPolicy = layerPolicy;
+        updateLayers(mLayersEnabled, false);
+    }
+
+    public LayerPolicy getLayerPolicy() {
+        return mLayerPolicy;
+    }
+
+    @Override
+    void enableLayers(boolean enable) {
+        mLayersEnabled = enable;
+        updateLayers(enable, false);
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        final int action = ev.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            untrim();
+        }
+        if (action == MotionEvent.ACTION_DOWN && !mLayersEnabled) {
+            // Have the layers ready before the drag starts.
+            updateLayers(true, true);
+        }
+        final boolean handled = super.dispatchTouchEvent(ev);
+        if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) && !mLayersEnabled) {
+            // No scroll came out of the gesture.
+            updateLayers(false, false);
+        }
+        return handled;
+    }
+
+    @Override
+    protected void onPageScrolled(int position, float offset, int offsetPixels) {
+        super.onPageScrolled(position, offset, offsetPixels);
+        if (mLayersEnabled && mLayerPolicy == LayerPolicy.FLIPPING_PAGE) {
+            updateLayers(true, false);
+        }
+        if (mSnapshotStackedPages && mSnapshots.size() > 0) {
+            // Snapshots are drawn with the pages' matrices recorded into the stack's own display
+            // list, which transforming the pages alone doesn't re-record.
+            invalidate();
+        }
+    }
+
+    private void updateLayers(boolean enable, boolean build) {
+        final boolean attached = getWindowToken() != null;
+        final int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.isDecor) {
+                continue;
+            }
+            boolean layer = false;
+            if (enable) {
+                switch (mLayerPolicy) {
+                    case ALL_PAGES:
+                        layer = true;
+                        break;
+                    case FLIPPING_PAGE:
+                        // The front page (at 0) is about to start flipping as well.
+                        layer = lp.transformPosition >= 0 && lp.transformPosition <= 1;
+                        break;
+                }
+            }
+            final int layerType = layer ? ViewCompat.LAYER_TYPE_HARDWARE : ViewCompat.LAYER_TYPE_NONE;
+            // Runs on every frame in FLIPPING_PAGE mode: setting an unchanged type would still
+            // reset the layer paint and invalidate the page.
+            if (ViewCompat.getLayerType(child) != layerType) {
+                ViewCompat.setLayerType(child, layerType, null);
+            }
+            if (layer && build && attached) {
+                child.buildLayer();
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(mTrimCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(mTrimCallbacks);
+        Looper.myQueue().removeIdleHandler(mUntrimIdleHandler);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE && mTrimmed) {
+            // Rebuilt once the UI thread has nothing better to do.
+            Looper.myQueue().removeIdleHandler(mUntrimIdleHandler);
+            Looper.myQueue().addIdleHandler(mUntrimIdleHandler);
+        }
+    }
+
+    /**
+     * Releases what the stack keeps only to be faster: the snapshots, the layers, the pooled and
+     * prefetched pages.
+     *
+     * @param shrinkWindow True to also destroy the pages that aren't visible, and draw the
+     *                     stacked pages without snapshots (until the stack is touched, or
+     *                     becomes visible again after being hidden). Otherwise the snapshots are
+     *                     retaken on the next frame.
+     */
+    private void trimMemory(boolean shrinkWindow) {
+        if (mSnapshots.size() > 0) {
+            for (int i = 0; i < mSnapshots.size(); i++) {
+                mSnapshots.valueAt(i).release();
+            }
+            mSnapshots.clear();
+            // The recorded display list still draws the recycled bitmaps
+            invalidate();
+        }
+        updateLayers(false, false);
+        if (getAdapter() instanceof RecyclingStackAdapter) {
+            ((RecyclingStackAdapter) getAdapter()).releasePrefetchedViews();
+        }
+        clearViewPool();
+
+        if (shrinkWindow && !mTrimmed) {
+            mTrimmed = true;
+            mUntrimmedLimitBefore = getOffscreenPageLimitBefore();
+            mUntrimmedLimitAfter = getOffscreenPageLimitAfter();
+            // The pages stacked under the current one, without the one that only shows up
+            // while the stack is moving (the pager always keeps at least one on each side).
+            final int visibleBefore = mStackPageTransformer != null ? mStackPageTransformer.getVisiblePagesBefore() - 1 : 1;
+            super.setOffscreenPageLimits(Math.max(1, visibleBefore), 1);
+        }
+    }
+
+    private void untrim() {
+        if (mTrimmed) {
+            mTrimmed = false;
+            setOffscreenPageLimits(mUntrimmedLimitBefore, mUntrimmedLimitAfter);
+        }
+    }
+
+    @Override
+    public void setOffscreenPageLimits(int before, int after) {
+        if (mTrimmed) {
+            // Applied when the stack is rebuilt.
+            mUntrimmedLimitBefore = before;
+            mUntrimmedLimitAfter = after;
+            return;
+        }
+        super.setOffscreenPageLimits(before, after);
+    }
+
+    @Override
+    void dataSetChanged() {
+        super.dataSetChanged();
+        invalidateSnapshots();
+    }
+
+    @Override
+    void onItemRebound(Object object) {
+        invalidateSnapshot((View) object);
+    }
+
+    @Override
+    public void addView(View child, int index, ViewGroup.LayoutParams params) {
+        super.addView(child, index, params);
+        // A recycled page may come back at the position of its old snapshot.
+        invalidateSnapshot(child);
+    }
+
+    private void invalidateSnapshot(View view) {
+        for (int i = 0; i < mSnapshots.size(); i++) {
+            final PageSnapshot snapshot = mSnapshots.valueAt(i);
+            if (snapshot.mView == view && snapshot.mValid) {
+                snapshot.mValid = false;
+                invalidate();
+            }
+        }
+    }
+
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.isDecor) {
+            return super.drawChild(canvas, child, drawingTime);
+        }
+        // A page moved since it was transformed may not be covered the way its transform says.
+        if (mClipStackedPages && mStackPageTransformer != null && isTransformPositionCurrent(child)
+                && mStackPageTransformer.getUncoveredBounds(child, lp.transformPosition, mClipBounds)) {
+            final int saveCount = canvas.save();
+            canvas.clipRect(mClipBounds);
+            final boolean result = drawPage(canvas, child, lp, drawingTime);
+            canvas.restoreToCount(saveCount);
+            return result;
+        }
+        return drawPage(canvas, child, lp, drawingTime);
+    }
+
+    private boolean drawPage(Canvas canvas, View child, LayoutParams lp, long drawingTime) {
+        if (mSnapshotStackedPages && !mTrimmed && lp.transformPosition < 0 && !lp.culled) {
+            final Bitmap snapshot = getSnapshot(child, lp.position);
+            if (snapshot != null) {
+                final int saveCount = canvas.save();
+                canvas.translate(child.getLeft(), child.getTop());
+                canvas.concat(child.getMatrix());
+                mSnapshotPaint.setAlpha((int) (child.getAlpha() * 255 + 0.5f));
+                canvas.drawBitmap(snapshot, 0, 0, mSnapshotPaint);
+                canvas.restoreToCount(saveCount);
+                return false;
+            }
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
+    private Bitmap getSnapshot(View child, int position) {
+        final int width = child.getWidth();
+        final int height = child.getHeight();
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        PageSnapshot snapshot = mSnapshots.get(position);
+        if (snapshot == null) {
+            removeDetachedSnapshots();
+            snapshot = new PageSnapshot();
+            mSnapshots.put(position, snapshot);
+        }
+        if (!snapshot.mValid || snapshot.mView != child || snapshot.mBitmap == null
+                || snapshot.mBitmap.getWidth() != width || snapshot.mBitmap.getHeight() != height) {
+            if (!snapshot.take(child, width, height)) {
+                mSnapshots.remove(position);
+                return null;
+            }
+        }
+        return snapshot.mBitmap;
+    }
+
+    private void removeDetachedSnapshots() {
+        if (mSnapshots.size() < getChildCount()) {
+            return;
+        }
+        for (int i = mSnapshots.size() - 1; i >= 0; i--) {
+            final View view = mSnapshots.valueAt(i).mView;
+            if (view == null || view.getParent() != this) {
+                mSnapshots.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Bitmap snapshot of a page. The bitmap is reused whenever the snapshot is retaken for a page
+     * of the same size.
+     */
+    private static class PageSnapshot {
+        private View mView;
+        private Bitmap mBitmap;
+        private Canvas mCanvas;
+        private boolean mValid;
+
+        void release() {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+                mBitmap = null;
+            }
+            mCanvas = null;
+            mView = null;
+            mValid = false;
+        }
+
+        boolean take(View view, int width, int height) {
+            mValid = false;
+            if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                try {
+                    mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                } catch (OutOfMemoryError e) {
+                    mBitmap = null;
+                    mCanvas = null;
+                    return false;
+                }
+                mCanvas = new Canvas(mBitmap);
+            } else {
+                mBitmap.eraseColor(0);
+            }
+            final int saveCount = mCanvas.save();
+            mCanvas.translate(-view.getScrollX(), -view.getScrollY());
+            view.draw(mCanvas);
+            mCanvas.restoreToCount(saveCount);
+            mView = view;
+            mValid = true;
+            return true;
+        }
+    }
+
+    /**
+     * The stack starts at the last item of the adapter (the one on top of the stack).
+     */
     @Override
-    public void setAdapter(PagerAdapter adapter) {
-        super.setAdapter(adapter);
-        setCurrentItem(adapter.getCount() - 1);
+    int getInitialItem() {
+        return getAdapter().getCount() - 1;
     }
 }
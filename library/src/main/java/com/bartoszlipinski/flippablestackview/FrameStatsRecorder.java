@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Collects {@link GestureFrameStats} for an <code>OrientedViewPager</code>. Phases can nest, the
+ * time of a phase doesn't include the time of the phases started within it.
+ */
+class FrameStatsRecorder {
+
+    private static final int MAX_PHASE_DEPTH = 8;
+
+    private final int[] mPhaseStack = new int[MAX_PHASE_DEPTH];
+    private int mPhaseDepth;
+    private long mPhaseMark;
+
+    private GestureFrameStats mStats;
+    private long mGestureStart;
+    private long mFrameIntervalNanos;
+    private long mWork;
+    private long mWorkAtLastFrame;
+    private long mLastFrameTime;
+
+    private FrameCallbackCompat mFrameCallback;
+
+    boolean isRecording() {
+        return mStats != null;
+    }
+
+    void startGesture(float refreshRate) {
+        mStats = new GestureFrameStats();
+        mGestureStart = System.nanoTime();
+        mFrameIntervalNanos = (long) (1000000000 / (refreshRate > 0 ? refreshRate : 60));
+        mWork = 0;
+        mWorkAtLastFrame = 0;
+        mLastFrameTime = 0;
+        mPhaseDepth = 0;
+        if (Build.VERSION.SDK_INT >= 16) {
+            if (mFrameCallback == null) {
+                mFrameCallback = new FrameCallbackCompat(this);
+            }
+            mFrameCallback.post();
+        }
+    }
+
+    /**
+     * @return Stats of the gesture, or null if none was being recorded.
+     */
+    GestureFrameStats endGesture() {
+        final GestureFrameStats stats = mStats;
+        if (stats == null) {
+            return null;
+        }
+        if (mFrameCallback != null) {
+            mFrameCallback.remove();
+        }
+        closeFrame();
+        stats.mDurationNanos = System.nanoTime() - mGestureStart;
+        mStats = null;
+        return stats;
+    }
+
+    void beginPhase(int phase) {
+        if (mStats == null || mPhaseDepth == MAX_PHASE_DEPTH) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (mPhaseDepth > 0) {
+            addPhaseTime(mPhaseStack[mPhaseDepth - 1], now - mPhaseMark);
+        }
+        mPhaseStack[mPhaseDepth++] = phase;
+        mPhaseMark = now;
+    }
+
+    void endPhase() {
+        if (mStats == null || mPhaseDepth == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        addPhaseTime(mPhaseStack[--mPhaseDepth], now - mPhaseMark);
+        mPhaseMark = now;
+    }
+
+    private void addPhaseTime(int phase, long nanos) {
+        mStats.mPhaseNanos[phase] += nanos;
+        mWork += nanos;
+    }
+
+    /**
+     * Called once per drawn frame. Below API 16 this is what counts the frames.
+     */
+    void onDraw() {
+        if (mStats != null && mFrameCallback == null) {
+            closeFrame();
+            mStats.mFrameCount++;
+        }
+    }
+
+    void onFrame(long frameTimeNanos) {
+        if (mStats == null) {
+            return;
+        }
+        closeFrame();
+        mStats.mFrameCount++;
+        if (mLastFrameTime != 0) {
+            // Vsyncs that passed without a frame
+            final long skipped = (frameTimeNanos - mLastFrameTime) / mFrameIntervalNanos - 1;
+            if (skipped > 0) {
+                mStats.mDroppedFrameCount += skipped;
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+    }
+
+    private void closeFrame() {
+        final long frameWork = mWork - mWorkAtLastFrame;
+        if (frameWork > mStats.mMaxFrameWorkNanos) {
+            mStats.mMaxFrameWorkNanos = frameWork;
+        }
+        mWorkAtLastFrame = mWork;
+    }
+
+    @TargetApi(16)
+    private static class FrameCallbackCompat implements Choreographer.FrameCallback {
+        private final FrameStatsRecorder mRecorder;
+
+        FrameCallbackCompat(FrameStatsRecorder recorder) {
+            mRecorder = recorder;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mRecorder.onFrame(frameTimeNanos);
+            if (mRecorder.isRecording()) {
+                post();
+            }
+        }
+    }
+}
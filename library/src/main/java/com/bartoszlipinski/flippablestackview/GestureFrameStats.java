@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+/**
+ * Summary of the frames of a single gesture, from the moment the pager starts being dragged
+ * or settling until it's idle again (see
+ * {@link OrientedViewPager#setOnGestureFrameStatsListener(OrientedViewPager.OnGestureFrameStatsListener)}).
+ * <p/>
+ * Times are in nanoseconds and exclusive: e.g. time spent in populate during a measure pass
+ * is only counted as populate, and time spent in the adapter's <code>instantiateItem</code> is
+ * only counted as instantiate.
+ */
+public class GestureFrameStats {
+
+    static final int PHASE_POPULATE = 0;
+    static final int PHASE_INSTANTIATE = 1;
+    static final int PHASE_MEASURE = 2;
+    static final int PHASE_LAYOUT = 3;
+    static final int PHASE_TRANSFORM = 4;
+    static final int PHASE_DRAW = 5;
+    static final int PHASE_COUNT = 6;
+
+    final long[] mPhaseNanos = new long[PHASE_COUNT];
+    long mDurationNanos;
+    int mFrameCount;
+    int mDroppedFrameCount;
+    long mMaxFrameWorkNanos;
+
+    GestureFrameStats() {
+    }
+
+    /**
+     * @return Time from the start of the gesture until the pager became idle.
+     */
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * @return Number of frames (vsyncs on API 16+, drawn frames below) during the gesture.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return Number of frames missed during the gesture (always 0 below API 16).
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * @return Largest amount of work done by the pager within a single frame.
+     */
+    public long getMaxFrameWorkNanos() {
+        return mMaxFrameWorkNanos;
+    }
+
+    public long getPopulateNanos() {
+        return mPhaseNanos[PHASE_POPULATE];
+    }
+
+    /**
+     * @return Time spent in the adapter creating pages.
+     */
+    public long getInstantiateNanos() {
+        return mPhaseNanos[PHASE_INSTANTIATE];
+    }
+
+    public long getMeasureNanos() {
+        return mPhaseNanos[PHASE_MEASURE];
+    }
+
+    public long getLayoutNanos() {
+        return mPhaseNanos[PHASE_LAYOUT];
+    }
+
+    /**
+     * @return Time spent in the page transformer.
+     */
+    public long getTransformNanos() {
+        return mPhaseNanos[PHASE_TRANSFORM];
+    }
+
+    public long getDrawNanos() {
+        return mPhaseNanos[PHASE_DRAW];
+    }
+
+    @Override
+    public String toString() {
+        return "GestureFrameStats{"
+                + "durationMs=" + toMillis(mDurationNanos)
+                + " frames=" + mFrameCount
+                + " dropped=" + mDroppedFrameCount
+                + " maxFrameMs=" + toMillis(mMaxFrameWorkNanos)
+                + " populateMs=" + toMillis(mPhaseNanos[PHASE_POPULATE])
+                + " instantiateMs=" + toMillis(mPhaseNanos[PHASE_INSTANTIATE])
+                + " measureMs=" + toMillis(mPhaseNanos[PHASE_MEASURE])
+                + " layoutMs=" + toMillis(mPhaseNanos[PHASE_LAYOUT])
+                + " transformMs=" + toMillis(mPhaseNanos[PHASE_TRANSFORM])
+                + " drawMs=" + toMillis(mPhaseNanos[PHASE_DRAW])
+                + "}";
+    }
+
+    private static float toMillis(long nanos) {
+        return nanos / 1000000f;
+    }
+}
@@ -25,6 +25,8 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.SystemClock;
@@ -52,14 +54,12 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.animation.Interpolator;
 import android.widget.Scroller;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 
 /**
  * Created by Bartosz Lipinski
@@ -80,6 +80,7 @@ public class OrientedViewPager extends ViewGroup {
 
     private static final int DEFAULT_OFFSCREEN_PAGES = 1;
     private static final int MAX_SETTLE_DURATION = 600; // ms
+    private static final int MAX_MEASURED_GAP = 32; // pages
     private static final int MIN_DISTANCE_FOR_FLING = 25; // dips
 
     private static final int DEFAULT_GUTTER_SIZE = 16; // dips
@@ -96,20 +97,181 @@ public class OrientedViewPager extends ViewGroup {
      */
     private int mExpectedAdapterCount;
 
+    /**
+     * If true, adapter position 0 is the last page of the pager (see adapterPosition()).
+     */
+    private boolean mReverseAdapterPositions;
+
+    /**
+     * State of the fine-grained item updates (see RecyclingStackAdapter.ItemObserver).
+     */
+    private int mItemUpdateDepth;
+    private int mItemUpdateCurItem;
+    private boolean mItemUpdateCurItemRemoved;
+    private boolean mItemUpdateFull;
+
     private static class ItemInfo {
         Object object;
         int position;
         boolean scrolling;
+        // Set while the item's data changed in an item update, until it's rebound.
+        boolean changed;
         float sizeFactor;
         float offset;
+        // Next recycled item, while this one is recycled.
+        ItemInfo nextRecycled;
     }
 
-    private static final Comparator<ItemInfo> COMPARATOR = new Comparator<ItemInfo>() {
-        @Override
-        public int compare(ItemInfo lhs, ItemInfo rhs) {
-            return lhs.position - rhs.position;
+    /**
+     * Items currently held by the pager, kept sorted by position. Backed by a ring buffer, so
+     * that items can be added and removed at both ends in constant time. As the populated
+     * positions are normally contiguous, an item is found by its position in constant time as
+     * well (falling back to a binary search when they're not).
+     */
+    private static class ItemWindow {
+        private ItemInfo[] mBuffer = new ItemInfo[8];
+        private int mHead;
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        ItemInfo get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+            }
+            return mBuffer[(mHead + index) & (mBuffer.length - 1)];
+        }
+
+        void add(ItemInfo ii) {
+            add(mSize, ii);
         }
-    };
+
+        void add(int index, ItemInfo ii) {
+            if (index < 0 || index > mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+            }
+            if (mSize == mBuffer.length) {
+                grow();
+            }
+            final int mask = mBuffer.length - 1;
+            if (index < mSize - index) {
+                // Closer to the head, shift the preceding items back.
+                mHead = (mHead - 1) & mask;
+                for (int i = 0; i < index; i++) {
+                    mBuffer[(mHead + i) & mask] = mBuffer[(mHead + i + 1) & mask];
+                }
+            } else {
+                for (int i = mSize; i > index; i--) {
+                    mBuffer[(mHead + i) & mask] = mBuffer[(mHead + i - 1) & mask];
+                }
+            }
+            mBuffer[(mHead + index) & mask] = ii;
+            mSize++;
+        }
+
+        ItemInfo remove(int index) {
+            final ItemInfo ii = get(index);
+            final int mask = mBuffer.length - 1;
+            if (index < mSize - 1 - index) {
+                for (int i = index; i > 0; i--) {
+                    mBuffer[(mHead + i) & mask] = mBuffer[(mHead + i - 1) & mask];
+                }
+                mBuffer[mHead] = null;
+                mHead = (mHead + 1) & mask;
+            } else {
+                for (int i = index; i < mSize - 1; i++) {
+                    mBuffer[(mHead + i) & mask] = mBuffer[(mHead + i + 1) & mask];
+                }
+                mBuffer[(mHead + mSize - 1) & mask] = null;
+            }
+            mSize--;
+            return ii;
+        }
+
+        void clear() {
+            for (int i = 0; i < mSize; i++) {
+                mBuffer[(mHead + i) & (mBuffer.length - 1)] = null;
+            }
+            mHead = 0;
+            mSize = 0;
+        }
+
+        /**
+         * @return Index of the first item with a position greater than or equal to the given
+         * one (or <code>size()</code> if there's none).
+         */
+        int lowerBound(int position) {
+            if (mSize == 0) {
+                return 0;
+            }
+            final int first = get(0).position;
+            final int last = get(mSize - 1).position;
+            if (position <= first) {
+                return 0;
+            }
+            if (position > last) {
+                return mSize;
+            }
+            if (last - first == mSize - 1) {
+                // Contiguous positions.
+                return position - first;
+            }
+            int low = 0;
+            int high = mSize - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (get(mid).position < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return Index of the item at the given position, or -1 if there's none.
+         */
+        int indexOfPosition(int position) {
+            final int index = lowerBound(position);
+            return (index < mSize && get(index).position == position) ? index : -1;
+        }
+
+        /**
+         * Restores the order by position after positions of the items changed. Positions
+         * normally change by the same amount for all the items, so it's mostly a single pass.
+         */
+        void sort() {
+            for (int i = 1; i < mSize; i++) {
+                final ItemInfo ii = get(i);
+                int j = i - 1;
+                while (j >= 0 && get(j).position > ii.position) {
+                    set(j + 1, get(j));
+                    j--;
+                }
+                set(j + 1, ii);
+            }
+        }
+
+        private void set(int index, ItemInfo ii) {
+            mBuffer[(mHead + index) & (mBuffer.length - 1)] = ii;
+        }
+
+        private void grow() {
+            final ItemInfo[] buffer = new ItemInfo[mBuffer.length * 2];
+            for (int i = 0; i < mSize; i++) {
+                buffer[i] = get(i);
+            }
+            mBuffer = buffer;
+            mHead = 0;
+        }
+    }
 
     private static final Interpolator sInterpolator = new Interpolator() {
         public float getInterpolation(float t) {
@@ -118,8 +280,10 @@ public class OrientedViewPager extends ViewGroup {
         }
     };
 
-    private final ArrayList<ItemInfo> mItems = new ArrayList<ItemInfo>();
+    private final ItemWindow mItems = new ItemWindow();
     private final ItemInfo mTempItem = new ItemInfo();
+    private final ItemInfo mOldCurItem = new ItemInfo();
+    private ItemInfo mRecycledItems;
 
     private final Rect mTempRect = new Rect();
 
@@ -138,6 +302,12 @@ public class OrientedViewPager extends ViewGroup {
     private int mTopLeftPageBounds;
     private int mBottomRightPageBounds;
 
+    // Area available to the pages, as computed during the last layout pass.
+    private int mPageAreaLeft;
+    private int mPageAreaTop;
+    private int mPageAreaWidth;
+    private int mPageAreaHeight;
+
     // Offsets of the first and last items, if known.
     // Set during population, used to determine if we are at the beginning
     // or end of the pager data set during touch scrolling.
@@ -151,7 +321,9 @@ public class OrientedViewPager extends ViewGroup {
     private boolean mScrollingCacheEnabled;
 
     private boolean mPopulatePending;
-    private int mOffscreenPageLimit = DEFAULT_OFFSCREEN_PAGES;
+    private int mOffscreenPageLimitBefore = DEFAULT_OFFSCREEN_PAGES;
+    private int mOffscreenPageLimitAfter = DEFAULT_OFFSCREEN_PAGES;
+    private StackViewPool mViewPool;
 
     private boolean mIsBeingDragged;
     private boolean mIsUnableToDrag;
@@ -203,17 +375,56 @@ public class OrientedViewPager extends ViewGroup {
     private int mDecorChildCount;
 
     private ViewPager.OnPageChangeListener mOnPageChangeListener;
+    /**
+     * Unlike mOnPageChangeListener, gets pager positions (reversed when adapter positions are,
+     * see adapterPosition()).
+     */
     private ViewPager.OnPageChangeListener mInternalPageChangeListener;
     private OnAdapterChangeListener mAdapterChangeListener;
-    private ViewPager.PageTransformer mPageTransformer;
-    private Method mSetChildrenDrawingOrderEnabled;
+    private BatchPageTransformer mPageTransformer;
+    private View[] mTransformPages = new View[0];
+    private float[] mTransformPositions = new float[0];
 
     private static final int DRAW_ORDER_DEFAULT = 0;
     private static final int DRAW_ORDER_FORWARD = 1;
     private static final int DRAW_ORDER_REVERSE = 2;
     private int mDrawingOrder;
-    private ArrayList<View> mDrawingOrderedChildren;
-    private static final ViewPositionComparator sPositionComparator = new ViewPositionComparator();
+
+    // Child indices, sorted by drawing order (by adapter position, decor views last).
+    private int[] mChildDrawingOrder = new int[0];
+    private int mChildDrawingOrderCount;
+    private boolean mChildDrawingOrderValid;
+    private boolean mChildDrawingOrderSorted;
+    // True while a child is being added or removed through addView/removeView, which keep
+    // mChildDrawingOrder up to date on their own.
+    private boolean mChangingChild;
+    // Position of the item being instantiated, -1 if none.
+    private int mInstantiatingPosition = -1;
+
+    private OnHierarchyChangeListener mExternalHierarchyChangeListener;
+    private final OnHierarchyChangeListener mHierarchyChangeListener = new OnHierarchyChangeListener() {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            if (!mChangingChild) {
+                // Added some other way, the drawing order has to be rebuilt.
+                mChildDrawingOrderValid = false;
+            }
+            if (mExternalHierarchyChangeListener != null) {
+                mExternalHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            if (!mChangingChild) {
+                // Removed some other way, the drawing order has to be rebuilt.
+                mChildDrawingOrderValid = false;
+            }
+            if (mExternalHierarchyChangeListener != null) {
+                mExternalHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    };
 
     /**
      * Indicates that the pager is in an idle, settled state. The current page
@@ -238,8 +449,39 @@ public class OrientedViewPager extends ViewGroup {
         }
     };
 
+    private boolean mSpringSettleEnabled;
+
+    private final MessageQueue.IdleHandler mPrefetchIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrefetchScheduled = prefetchPage();
+            return mPrefetchScheduled;
+        }
+    };
+
+    private boolean mPrefetchEnabled = true;
+    private boolean mPrefetchScheduled;
+    private int mPrefetchDirection;
+
     private int mScrollState = SCROLL_STATE_IDLE;
 
+    private OnGestureFrameStatsListener mGestureFrameStatsListener;
+    private FrameStatsRecorder mFrameStatsRecorder;
+    private final PagerWorkCounters mWorkCounters = new PagerWorkCounters();
+    private AllocationChecker mAllocationChecker;
+
+    /**
+     * Callback receiving the frame timing of each drag or settle of the pager.
+     */
+    public interface OnGestureFrameStatsListener {
+        /**
+         * Called when the pager becomes idle after being dragged or settling.
+         *
+         * @param stats Frame timing of the gesture that has just finished
+         */
+        public void onGestureFrameStats(GestureFrameStats stats);
+    }
+
     /**
      * Used internally to monitor when adapters are switched.
      */
@@ -268,6 +510,7 @@ public class OrientedViewPager extends ViewGroup {
         setWillNotDraw(false);
         setDescendantFocusability(FOCUS_AFTER_DESCENDANTS);
         setFocusable(true);
+        super.setOnHierarchyChangeListener(mHierarchyChangeListener);
         final Context context = getContext();
         mScroller = new Scroller(context, sInterpolator);
         final ViewConfiguration configuration = ViewConfiguration.get(context);
@@ -296,9 +539,134 @@ public class OrientedViewPager extends ViewGroup {
         mOrientation = orientation;
     }
 
+    /**
+     * Used to let the pages settle with a spring instead of a fixed-duration scroll. The spring
+     * starts from the velocity the pages were released (or flung) with, so quick flicks aren't
+     * slowed down to fill a precomputed duration. Pages flung hard enough overshoot the target
+     * page slightly (by up to 16dp) and are taken back without oscillating, unless there are no
+     * more pages past it, in which case they stop at it.
+     * <p/>
+     * The spring decides the duration on its own: neither the 600ms cap nor the distance-based
+     * duration of the default settle apply, a spring settle takes up to 2 seconds.
+     *
+     * @param enabled True to settle the pages with a spring.
+     */
+    public void setSpringSettleEnabled(boolean enabled) {
+        if (mSpringSettleEnabled == enabled) {
+            return;
+        }
+        mSpringSettleEnabled = enabled;
+        completeScroll(false);
+        mScroller = enabled ? new SpringScroller(getContext()) : new Scroller(getContext(), sInterpolator);
+    }
+
+    public boolean isSpringSettleEnabled() {
+        return mSpringSettleEnabled;
+    }
+
+    /**
+     * Used to let the pager prepare the pages just outside of the populated ones while the UI
+     * thread is idle, and while the pages are dragged (ahead of the drag, based on its velocity).
+     * The pages are created and bound in advance, so bringing them in only adds, measures and
+     * lays them out. Default is true.
+     * <p/>
+     * Only takes effect with a {@link RecyclingStackAdapter}.
+     *
+     * @param enabled True to prefetch the pages.
+     */
+    public void setPagePrefetchEnabled(boolean enabled) {
+        mPrefetchEnabled = enabled;
+        if (!enabled) {
+            cancelPrefetch();
+            if (mAdapter instanceof RecyclingStackAdapter) {
+                ((RecyclingStackAdapter) mAdapter).releasePrefetchedViews();
+            }
+        }
+    }
+
+    public boolean isPagePrefetchEnabled() {
+        return mPrefetchEnabled;
+    }
+
+    /**
+     * @param direction Side to prefetch on: 1 for the pages after the populated ones, -1 for the
+     *                  ones before, 0 for both.
+     */
+    private void schedulePrefetch(int direction) {
+        if (!mPrefetchEnabled || !(mAdapter instanceof RecyclingStackAdapter)) {
+            return;
+        }
+        mPrefetchDirection = direction;
+        if (!mPrefetchScheduled) {
+            Looper.myQueue().addIdleHandler(mPrefetchIdleHandler);
+            mPrefetchScheduled = true;
+        }
+    }
+
+    private void cancelPrefetch() {
+        if (mPrefetchScheduled) {
+            Looper.myQueue().removeIdleHandler(mPrefetchIdleHandler);
+            mPrefetchScheduled = false;
+        }
+    }
+
+    /**
+     * Prefetches a single page next to the populated ones.
+     *
+     * @return True if a page was prefetched (and there may be more to do).
+     */
+    private boolean prefetchPage() {
+        if (!(mAdapter instanceof RecyclingStackAdapter) || mItems.isEmpty()
+                || mChildWidthMeasureSpec == 0 || getWindowToken() == null) {
+            return false;
+        }
+        final int before = mItems.get(0).position - 1;
+        final int after = mItems.get(mItems.size() - 1).position + 1;
+        if (prefetchPage(mPrefetchDirection < 0 ? before : after)) {
+            return true;
+        }
+        return mPrefetchDirection == 0 && prefetchPage(before);
+    }
+
+    private boolean prefetchPage(int position) {
+        if (position < 0 || position >= mExpectedAdapterCount) {
+            return false;
+        }
+        final float sizeFactor = getPageWidth(position);
+        int widthSpec = mChildWidthMeasureSpec;
+        int heightSpec = mChildHeightMeasureSpec;
+        if (mOrientation == Orientation.VERTICAL) {
+            heightSpec = MeasureSpec.makeMeasureSpec(
+                    (int) (MeasureSpec.getSize(heightSpec) * sizeFactor), MeasureSpec.EXACTLY);
+        } else {
+            widthSpec = MeasureSpec.makeMeasureSpec(
+                    (int) (MeasureSpec.getSize(widthSpec) * sizeFactor), MeasureSpec.EXACTLY);
+        }
+        return ((RecyclingStackAdapter) mAdapter).prefetchItem(this, adapterPosition(position),
+                widthSpec, heightSpec);
+    }
+
+    /**
+     * @return Side the pages are being dragged to (see schedulePrefetch()).
+     */
+    private int predictDragDirection() {
+        final VelocityTracker velocityTracker = mVelocityTracker;
+        velocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+        final float velocity = (mOrientation == Orientation.VERTICAL) ?
+                VelocityTrackerCompat.getYVelocity(velocityTracker, mActivePointerId) :
+                VelocityTrackerCompat.getXVelocity(velocityTracker, mActivePointerId);
+        // Moving the finger back scrolls forward, to the next pages
+        return velocity < 0 ? 1 : (velocity > 0 ? -1 : 0);
+    }
+
     @Override
     protected void onDetachedFromWindow() {
+        cancelPrefetch();
         removeCallbacks(mEndScrollRunnable);
+        if (mFrameStatsRecorder != null) {
+            // Nothing will be drawn anymore, the gesture is dropped.
+            mFrameStatsRecorder.endGesture();
+        }
         super.onDetachedFromWindow();
     }
 
@@ -307,7 +675,22 @@ public class OrientedViewPager extends ViewGroup {
             return;
         }
 
+        if (mFrameStatsRecorder != null) {
+            if (newState == SCROLL_STATE_IDLE) {
+                final GestureFrameStats stats = mFrameStatsRecorder.endGesture();
+                if (stats != null) {
+                    mGestureFrameStatsListener.onGestureFrameStats(stats);
+                }
+            } else if (!mFrameStatsRecorder.isRecording()) {
+                mFrameStatsRecorder.startGesture(getRefreshRate());
+            }
+        }
+
         mScrollState = newState;
+        skipAllocationCheck();
+        if (TraceCompat.isEnabled()) {
+            TraceCompat.setCounter(TraceCompat.COUNTER_SCROLL_STATE, newState);
+        }
         if (mPageTransformer != null) {
             // PageTransformers can do complex things that benefit from hardware layers.
             enableLayers(newState != SCROLL_STATE_IDLE);
@@ -325,10 +708,17 @@ public class OrientedViewPager extends ViewGroup {
     public void setAdapter(PagerAdapter adapter) {
         if (mAdapter != null) {
             mAdapter.unregisterDataSetObserver(mObserver);
+            if (mAdapter instanceof RecyclingStackAdapter) {
+                ((RecyclingStackAdapter) mAdapter).unregisterItemObserver(mObserver);
+                ((RecyclingStackAdapter) mAdapter).releasePrefetchedViews();
+            }
+            cancelPrefetch();
+            mItemUpdateDepth = 0;
             mAdapter.startUpdate(this);
             for (int i = 0; i < mItems.size(); i++) {
                 final ItemInfo ii = mItems.get(i);
-                mAdapter.destroyItem(this, ii.position, ii.object);
+                destroyAdapterItem(adapterPosition(ii.position), ii.object);
+                recycleItemInfo(ii);
             }
             mAdapter.finishUpdate(this);
             mItems.clear();
@@ -338,6 +728,10 @@ public class OrientedViewPager extends ViewGroup {
         }
 
         final PagerAdapter oldAdapter = mAdapter;
+        if (oldAdapter != adapter) {
+            // Pages of the old adapter can't be bound by the new one
+            clearViewPool();
+        }
         mAdapter = adapter;
         mExpectedAdapterCount = 0;
 
@@ -346,20 +740,26 @@ public class OrientedViewPager extends ViewGroup {
                 mObserver = new PagerObserver();
             }
             mAdapter.registerDataSetObserver(mObserver);
+            if (mAdapter instanceof RecyclingStackAdapter) {
+                ((RecyclingStackAdapter) mAdapter).registerItemObserver(mObserver);
+            }
             mPopulatePending = false;
             final boolean wasFirstLayout = mFirstLayout;
             mFirstLayout = true;
             mExpectedAdapterCount = mAdapter.getCount();
             if (mRestoredCurItem >= 0) {
                 mAdapter.restoreState(mRestoredAdapterState, mRestoredClassLoader);
-                setCurrentItemInternal(mRestoredCurItem, false, true);
+                setCurrentItemInternal(adapterPosition(mRestoredCurItem), false, true);
                 mRestoredCurItem = -1;
                 mRestoredAdapterState = null;
                 mRestoredClassLoader = null;
-            } else if (!wasFirstLayout) {
-                populate();
             } else {
-                requestLayout();
+                // Select the initial item before populating, so that pages around item 0
+                // aren't created just to be destroyed again.
+                setCurrentItemInternal(getInitialItem(), false, true);
+                if (!wasFirstLayout) {
+                    populate();
+                }
             }
         }
 
@@ -368,6 +768,43 @@ public class OrientedViewPager extends ViewGroup {
         }
     }
 
+    /**
+     * Used to reverse the order of the adapter positions, so that adapter position 0 is the last
+     * page of the pager. Positions of the pages are then counted from the end, and items inserted
+     * at the beginning of the adapter don't move any of the pages. Resets the current adapter.
+     */
+    void setReverseAdapterPositions(boolean reverse) {
+        if (reverse != mReverseAdapterPositions) {
+            final PagerAdapter adapter = mAdapter;
+            setAdapter(null);
+            mReverseAdapterPositions = reverse;
+            setAdapter(adapter);
+        }
+    }
+
+    boolean isReversingAdapterPositions() {
+        return mReverseAdapterPositions;
+    }
+
+    /**
+     * Converts between adapter positions and positions of the pages (the conversion is its own
+     * inverse).
+     */
+    int adapterPosition(int position) {
+        return adapterPosition(position, mExpectedAdapterCount);
+    }
+
+    private int adapterPosition(int position, int count) {
+        return mReverseAdapterPositions ? count - 1 - position : position;
+    }
+
+    /**
+     * @return Item selected when a new adapter is set (and there's no saved state to restore).
+     */
+    int getInitialItem() {
+        return 0;
+    }
+
     private void removeNonDecorViews() {
         for (int i = 0; i < getChildCount(); i++) {
             final View child = getChildAt(i);
@@ -388,6 +825,43 @@ public class OrientedViewPager extends ViewGroup {
         return mAdapter;
     }
 
+    /**
+     * Pool of detached pages used by {@link RecyclingStackAdapter}. The pages this pager put into
+     * it are removed whenever the adapter changes.
+     *
+     * @return The pool (created on first use).
+     */
+    public StackViewPool getViewPool() {
+        if (mViewPool == null) {
+            mViewPool = new StackViewPool();
+            mViewPool.ensureDefaultMaxRecycledViews(getRetainedPageCount());
+        }
+        return mViewPool;
+    }
+
+    /**
+     * Used to share a pool of detached pages between several pagers using
+     * {@link RecyclingStackAdapter}s with the same view types.
+     *
+     * @param pool Pool to use, or null to use a pool owned by this pager.
+     */
+    public void setViewPool(StackViewPool pool) {
+        mViewPool = pool;
+        if (pool != null) {
+            pool.ensureDefaultMaxRecycledViews(getRetainedPageCount());
+        }
+    }
+
+    /**
+     * Removes the pages this pager put into its pool, without creating one. The pages of other
+     * pagers sharing the pool are kept.
+     */
+    void clearViewPool() {
+        if (mViewPool != null) {
+            mViewPool.clear(this);
+        }
+    }
+
     void setOnAdapterChangeListener(OnAdapterChangeListener listener) {
         mAdapterChangeListener = listener;
     }
@@ -408,7 +882,7 @@ public class OrientedViewPager extends ViewGroup {
      */
     public void setCurrentItem(int item) {
         mPopulatePending = false;
-        setCurrentItemInternal(item, !mFirstLayout, false);
+        setCurrentItemInternal(adapterPosition(item), !mFirstLayout, false);
     }
 
     /**
@@ -419,11 +893,11 @@ public class OrientedViewPager extends ViewGroup {
      */
     public void setCurrentItem(int item, boolean smoothScroll) {
         mPopulatePending = false;
-        setCurrentItemInternal(item, smoothScroll, false);
+        setCurrentItemInternal(adapterPosition(item), smoothScroll, false);
     }
 
     public int getCurrentItem() {
-        return mCurItem;
+        return mAdapter != null ? adapterPosition(mCurItem) : mCurItem;
     }
 
     void setCurrentItemInternal(int item, boolean smoothScroll, boolean always) {
@@ -445,8 +919,8 @@ public class OrientedViewPager extends ViewGroup {
         } else if (item >= mAdapter.getCount()) {
             item = mAdapter.getCount() - 1;
         }
-        final int pageLimit = mOffscreenPageLimit;
-        if (item > (mCurItem + pageLimit) || item < (mCurItem - pageLimit)) {
+        if (item > (mCurItem + mOffscreenPageLimitAfter)
+                || item < (mCurItem - mOffscreenPageLimitBefore)) {
             // We are doing a jump by more than one page.  To avoid
             // glitches, we want to keep all current pages in the view
             // until the scroll ends.
@@ -461,7 +935,7 @@ public class OrientedViewPager extends ViewGroup {
             // Just set things up and let the pending layout handle things.
             mCurItem = item;
             if (dispatchSelected && mOnPageChangeListener != null) {
-                mOnPageChangeListener.onPageSelected(item);
+                mOnPageChangeListener.onPageSelected(adapterPosition(item));
             }
             if (dispatchSelected && mInternalPageChangeListener != null) {
                 mInternalPageChangeListener.onPageSelected(item);
@@ -489,14 +963,14 @@ public class OrientedViewPager extends ViewGroup {
                 smoothScrollTo(dest, 0, velocity);
             }
             if (dispatchSelected && mOnPageChangeListener != null) {
-                mOnPageChangeListener.onPageSelected(item);
+                mOnPageChangeListener.onPageSelected(adapterPosition(item));
             }
             if (dispatchSelected && mInternalPageChangeListener != null) {
                 mInternalPageChangeListener.onPageSelected(item);
             }
         } else {
             if (dispatchSelected && mOnPageChangeListener != null) {
-                mOnPageChangeListener.onPageSelected(item);
+                mOnPageChangeListener.onPageSelected(adapterPosition(item));
             }
             if (dispatchSelected && mInternalPageChangeListener != null) {
                 mInternalPageChangeListener.onPageSelected(item);
@@ -521,11 +995,112 @@ public class OrientedViewPager extends ViewGroup {
         mOnPageChangeListener = listener;
     }
 
+    /**
+     * Set a listener that will receive a {@link GestureFrameStats} each time the pager becomes
+     * idle after being dragged or settling. The stats split the work done by the pager between
+     * populating, instantiating pages, measuring, laying out, transforming and drawing, and
+     * count the frames dropped during the gesture (API 16+ only).
+     * <p/>
+     * <p>Timing is only done while a listener is set.</p>
+     *
+     * @param listener Listener to set, or null to stop monitoring
+     */
+    public void setOnGestureFrameStatsListener(OnGestureFrameStatsListener listener) {
+        mGestureFrameStatsListener = listener;
+        if (listener == null) {
+            if (mFrameStatsRecorder != null) {
+                mFrameStatsRecorder.endGesture();
+                mFrameStatsRecorder = null;
+            }
+        } else if (mFrameStatsRecorder == null) {
+            mFrameStatsRecorder = new FrameStatsRecorder();
+            if (mScrollState != SCROLL_STATE_IDLE) {
+                mFrameStatsRecorder.startGesture(getRefreshRate());
+            }
+        }
+    }
+
+    /**
+     * @return Counts of the work done by this pager so far. The returned object is updated
+     * as the pager keeps working, call {@link PagerWorkCounters#reset()} to start over.
+     */
+    public PagerWorkCounters getWorkCounters() {
+        return mWorkCounters;
+    }
+
+    /**
+     * Makes the pager throw an {@link IllegalStateException} whenever a drag or settle frame
+     * allocates on the UI thread (while performing the drag, scrolling, transforming the pages
+     * or drawing, the pages' own drawing included). Frames that create or destroy pages, and
+     * scroll state changes, are exempt.
+     * <p/>
+     * <p>Meant for tests and debug builds only: it relies on {@link android.os.Debug}
+     * allocation counting, which slows the whole application down.</p>
+     *
+     * @param enabled Whether to check the allocations
+     */
+    public void setAllocationCheckEnabled(boolean enabled) {
+        if (enabled && mAllocationChecker == null) {
+            mAllocationChecker = new AllocationChecker();
+            mAllocationChecker.start();
+        } else if (!enabled && mAllocationChecker != null) {
+            mAllocationChecker.stop();
+            mAllocationChecker = null;
+        }
+    }
+
+    public boolean isAllocationCheckEnabled() {
+        return mAllocationChecker != null;
+    }
+
+    /**
+     * @return Whether a section was started, to be passed to {@link #endAllocationCheck}.
+     */
+    private boolean beginAllocationCheck() {
+        if (mAllocationChecker == null || mScrollState == SCROLL_STATE_IDLE) {
+            return false;
+        }
+        mAllocationChecker.beginSection();
+        return true;
+    }
+
+    private void endAllocationCheck(boolean checked, String section) {
+        if (checked && mAllocationChecker != null) {
+            mAllocationChecker.endSection(section);
+        }
+    }
+
+    private void skipAllocationCheck() {
+        if (mAllocationChecker != null) {
+            mAllocationChecker.skipSection();
+        }
+    }
+
+    private float getRefreshRate() {
+        final WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        return windowManager != null ? windowManager.getDefaultDisplay().getRefreshRate() : 0;
+    }
+
+    private void beginFramePhase(int phase) {
+        if (mFrameStatsRecorder != null) {
+            mFrameStatsRecorder.beginPhase(phase);
+        }
+    }
+
+    private void endFramePhase() {
+        if (mFrameStatsRecorder != null) {
+            mFrameStatsRecorder.endPhase();
+        }
+    }
+
     /**
      * Set a {@link android.support.v4.view.ViewPager.PageTransformer} that will be called for each attached page whenever
      * the scroll position is changed. This allows the application to apply custom property
      * transformations to each page, overriding the default sliding look and feel.
      * <p/>
+     * <p>If the transformer also implements {@link BatchPageTransformer}, all the pages are
+     * handed to it in a single call instead.</p>
+     * <p/>
      * <p><em>Note:</em> Prior to Android 3.0 the property animation APIs did not exist.
      * As a result, setting a PageTransformer prior to Android 3.0 (API 11) will have no effect.</p>
      *
@@ -534,47 +1109,63 @@ public class OrientedViewPager extends ViewGroup {
      * @param transformer         PageTransformer that will modify each page's animation properties
      */
     public void setPageTransformer(boolean reverseDrawingOrder, ViewPager.PageTransformer transformer) {
+        final BatchPageTransformer batchTransformer;
+        if (transformer == null) {
+            batchTransformer = null;
+        } else if (transformer instanceof BatchPageTransformer) {
+            batchTransformer = (BatchPageTransformer) transformer;
+        } else {
+            batchTransformer = new PageTransformerAdapter(transformer);
+        }
+        setBatchPageTransformer(reverseDrawingOrder, batchTransformer);
+    }
+
+    /**
+     * Set a {@link BatchPageTransformer} that will be called with all the attached pages whenever
+     * the scroll position is changed.
+     *
+     * @param reverseDrawingOrder true if the supplied transformer requires page views
+     *                            to be drawn from last to first instead of first to last.
+     * @param transformer         Transformer that will modify the pages' animation properties
+     * @see #setPageTransformer(boolean, ViewPager.PageTransformer)
+     */
+    public void setBatchPageTransformer(boolean reverseDrawingOrder, BatchPageTransformer transformer) {
         if (Build.VERSION.SDK_INT >= 11) {
             final boolean hasTransformer = transformer != null;
             final boolean needsPopulate = hasTransformer != (mPageTransformer != null);
             mPageTransformer = transformer;
-            setChildrenDrawingOrderEnabledCompat(hasTransformer);
+            setChildrenDrawingOrderEnabled(hasTransformer);
             if (hasTransformer) {
                 mDrawingOrder = reverseDrawingOrder ? DRAW_ORDER_REVERSE : DRAW_ORDER_FORWARD;
             } else {
                 mDrawingOrder = DRAW_ORDER_DEFAULT;
+                uncullAllPages();
             }
             if (needsPopulate) populate();
         }
     }
 
-    void setChildrenDrawingOrderEnabledCompat(boolean enable) {
-        if (Build.VERSION.SDK_INT >= 7) {
-            if (mSetChildrenDrawingOrderEnabled == null) {
-                try {
-                    mSetChildrenDrawingOrderEnabled = ViewGroup.class.getDeclaredMethod(
-                            "setChildrenDrawingOrderEnabled", new Class[]{Boolean.TYPE});
-                } catch (NoSuchMethodException e) {
-                    Log.e(TAG, "Can't find setChildrenDrawingOrderEnabled", e);
-                }
-            }
-            try {
-                mSetChildrenDrawingOrderEnabled.invoke(this, enable);
-            } catch (Exception e) {
-                Log.e(TAG, "Error changing children drawing order", e);
-            }
+    @Override
+    protected int getChildDrawingOrder(int childCount, int i) {
+        if (!mChildDrawingOrderSorted || !mChildDrawingOrderValid || mChildDrawingOrderCount != childCount) {
+            sortChildDrawingOrder();
         }
+        final int index = mDrawingOrder == DRAW_ORDER_REVERSE ? childCount - 1 - i : i;
+        return mChildDrawingOrder[index];
     }
 
     @Override
-    protected int getChildDrawingOrder(int childCount, int i) {
-        final int index = mDrawingOrder == DRAW_ORDER_REVERSE ? childCount - 1 - i : i;
-        final int result = ((LayoutParams) mDrawingOrderedChildren.get(index).getLayoutParams()).childIndex;
-        return result;
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mExternalHierarchyChangeListener = listener;
     }
 
     /**
      * Set a separate OnPageChangeListener for internal use by the support library.
+     * <p/>
+     * The listener is given pager positions, which follow the scroll and the layout of the
+     * pages, rather than adapter positions. The two only differ with reversed adapter positions
+     * (e.g. in {@link FlippableStackView.IndexingMode#TOP_FIRST} mode): use
+     * {@link #adapterPosition(int)} to convert a position before handing it to the adapter.
      *
      * @param listener Listener to set
      * @return The old listener that was set, if any.
@@ -589,11 +1180,36 @@ public class OrientedViewPager extends ViewGroup {
      * Returns the number of pages that will be retained to either side of the
      * current page in the view hierarchy in an idle state. Defaults to 1.
      *
-     * @return How many pages will be kept offscreen on either side
+     * @return How many pages will be kept offscreen on either side (the larger of the two
+     * limits, if they differ)
      * @see #setOffscreenPageLimit(int)
+     * @see #setOffscreenPageLimits(int, int)
      */
     public int getOffscreenPageLimit() {
-        return mOffscreenPageLimit;
+        return Math.max(mOffscreenPageLimitBefore, mOffscreenPageLimitAfter);
+    }
+
+    /**
+     * @return How many pages will be kept offscreen before the current page
+     * @see #setOffscreenPageLimits(int, int)
+     */
+    public int getOffscreenPageLimitBefore() {
+        return mOffscreenPageLimitBefore;
+    }
+
+    /**
+     * @return How many pages will be kept offscreen after the current page
+     * @see #setOffscreenPageLimits(int, int)
+     */
+    public int getOffscreenPageLimitAfter() {
+        return mOffscreenPageLimitAfter;
+    }
+
+    /**
+     * @return Number of pages retained in an idle state (including the current one)
+     */
+    private int getRetainedPageCount() {
+        return mOffscreenPageLimitBefore + mOffscreenPageLimitAfter + 1;
     }
 
     /**
@@ -614,13 +1230,35 @@ public class OrientedViewPager extends ViewGroup {
      * @param limit How many pages will be kept offscreen in an idle state.
      */
     public void setOffscreenPageLimit(int limit) {
-        if (limit < DEFAULT_OFFSCREEN_PAGES) {
-            Log.w(TAG, "Requested offscreen page limit " + limit + " too small; defaulting to " +
+        setOffscreenPageLimits(limit, limit);
+    }
+
+    /**
+     * Set the number of pages that should be retained before and after the current page
+     * separately (see {@link #setOffscreenPageLimit(int)}). Useful when the pages on one side
+     * of the current page stay visible (e.g. stacked under it) while the ones on the other
+     * side don't.
+     *
+     * @param before How many pages will be kept offscreen before the current page.
+     * @param after  How many pages will be kept offscreen after the current page.
+     */
+    public void setOffscreenPageLimits(int before, int after) {
+        if (before < DEFAULT_OFFSCREEN_PAGES) {
+            Log.w(TAG, "Requested offscreen page limit " + before + " too small; defaulting to " +
                     DEFAULT_OFFSCREEN_PAGES);
-            limit = DEFAULT_OFFSCREEN_PAGES;
+            before = DEFAULT_OFFSCREEN_PAGES;
         }
-        if (limit != mOffscreenPageLimit) {
-            mOffscreenPageLimit = limit;
+        if (after < DEFAULT_OFFSCREEN_PAGES) {
+            Log.w(TAG, "Requested offscreen page limit " + after + " too small; defaulting to " +
+                    DEFAULT_OFFSCREEN_PAGES);
+            after = DEFAULT_OFFSCREEN_PAGES;
+        }
+        if (before != mOffscreenPageLimitBefore || after != mOffscreenPageLimitAfter) {
+            mOffscreenPageLimitBefore = before;
+            mOffscreenPageLimitAfter = after;
+            if (mViewPool != null) {
+                mViewPool.ensureDefaultMaxRecycledViews(getRetainedPageCount());
+            }
             populate();
         }
     }
@@ -734,6 +1372,24 @@ public class OrientedViewPager extends ViewGroup {
         setScrollingCacheEnabled(true);
         setScrollState(SCROLL_STATE_SETTLING);
 
+        if (mSpringSettleEnabled) {
+            final SpringScroller scroller = (SpringScroller) mScroller;
+            final boolean forward = (mOrientation == Orientation.VERTICAL ? dy : dx) > 0;
+            scroller.setOvershootAllowed(forward ? mCurItem < mAdapter.getCount() - 1 : mCurItem > 0);
+            if (velocity == 0) {
+                // Keeps the velocity of a settle in progress
+                mScroller.startScroll(sx, sy, dx, dy);
+            } else {
+                // The pages scroll against the movement of the finger
+                final float scrollVelocity = -velocity;
+                scroller.startSpring(sx, sy, dx, dy,
+                        mOrientation == Orientation.VERTICAL ? 0 : scrollVelocity,
+                        mOrientation == Orientation.VERTICAL ? scrollVelocity : 0);
+            }
+            ViewCompat.postInvalidateOnAnimation(this);
+            return;
+        }
+
         final int size = getClientSize();
         final int halfSize = size / 2;
         final float distanceRatio = Math.min(1f, 1.0f * Math.abs(dx) / size);
@@ -745,7 +1401,7 @@ public class OrientedViewPager extends ViewGroup {
         if (velocity > 0) {
             duration = 4 * Math.round(1000 * Math.abs(distance / velocity));
         } else {
-            final float pageSize = size * mAdapter.getPageWidth(mCurItem);
+            final float pageSize = size * getPageWidth(mCurItem);
             final float pageDelta = (float) Math.abs(dx) / (pageSize + mPageMargin);
             duration = (int) ((pageDelta + 1) * 100);
         }
@@ -755,11 +1411,43 @@ public class OrientedViewPager extends ViewGroup {
         ViewCompat.postInvalidateOnAnimation(this);
     }
 
+    private ItemInfo obtainItemInfo() {
+        final ItemInfo ii = mRecycledItems;
+        if (ii == null) {
+            return new ItemInfo();
+        }
+        mRecycledItems = ii.nextRecycled;
+        ii.nextRecycled = null;
+        return ii;
+    }
+
+    /**
+     * Returns an item that was removed from mItems (and destroyed) for reuse.
+     */
+    private void recycleItemInfo(ItemInfo ii) {
+        ii.object = null;
+        ii.position = 0;
+        ii.scrolling = false;
+        ii.changed = false;
+        ii.sizeFactor = 0.f;
+        ii.offset = 0.f;
+        ii.nextRecycled = mRecycledItems;
+        mRecycledItems = ii;
+    }
+
     ItemInfo addNewItem(int position, int index) {
-        ItemInfo ii = new ItemInfo();
+        ItemInfo ii = obtainItemInfo();
         ii.position = position;
-        ii.object = mAdapter.instantiateItem(this, position);
-        ii.sizeFactor = mAdapter.getPageWidth(position);
+        mInstantiatingPosition = position;
+        skipAllocationCheck();
+        beginFramePhase(GestureFrameStats.PHASE_INSTANTIATE);
+        mWorkCounters.mInstantiateCount++;
+        TraceCompat.beginSection(TraceCompat.SECTION_INSTANTIATE_ITEM);
+        ii.object = mAdapter.instantiateItem(this, adapterPosition(position));
+        TraceCompat.endSection();
+        endFramePhase();
+        mInstantiatingPosition = -1;
+        ii.sizeFactor = getPageWidth(position);
         if (index < 0 || index >= mItems.size()) {
             mItems.add(ii);
         } else {
@@ -768,19 +1456,38 @@ public class OrientedViewPager extends ViewGroup {
         return ii;
     }
 
+    private void destroyAdapterItem(int adapterPosition, Object object) {
+        mWorkCounters.mDestroyCount++;
+        skipAllocationCheck();
+        TraceCompat.beginSection(TraceCompat.SECTION_DESTROY_ITEM);
+        mAdapter.destroyItem(this, adapterPosition, object);
+        TraceCompat.endSection();
+    }
+
     void dataSetChanged() {
+        TraceCompat.beginSection(TraceCompat.SECTION_DATA_SET_CHANGED);
+        applyDataSetChange();
+        TraceCompat.endSection();
+    }
+
+    private void applyDataSetChange() {
         // This method only gets called if our observer is attached, so mAdapter is non-null.
 
         final int adapterCount = mAdapter.getCount();
+        final int oldAdapterCount = mExpectedAdapterCount;
         mExpectedAdapterCount = adapterCount;
-        boolean needPopulate = mItems.size() < mOffscreenPageLimit * 2 + 1 &&
+        boolean needPopulate = mItems.size() < getRetainedPageCount() &&
                 mItems.size() < adapterCount;
         int newCurrItem = mCurItem;
 
         boolean isUpdating = false;
         for (int i = 0; i < mItems.size(); i++) {
             final ItemInfo ii = mItems.get(i);
-            final int newPos = mAdapter.getItemPosition(ii.object);
+            int newPos = mAdapter.getItemPosition(ii.object);
+            if (newPos >= 0) {
+                // In reverse, POSITION_UNCHANGED keeps the position counted from the end
+                newPos = adapterPosition(newPos, adapterCount);
+            }
 
             if (newPos == PagerAdapter.POSITION_UNCHANGED) {
                 continue;
@@ -795,47 +1502,216 @@ public class OrientedViewPager extends ViewGroup {
                     isUpdating = true;
                 }
 
-                mAdapter.destroyItem(this, ii.position, ii.object);
-                needPopulate = true;
+                destroyAdapterItem(adapterPosition(ii.position, oldAdapterCount), ii.object);
+                needPopulate = true;
+
+                if (mCurItem == ii.position) {
+                    // Keep the current item in the valid range
+                    newCurrItem = Math.max(0, Math.min(mCurItem, adapterCount - 1));
+                    needPopulate = true;
+                }
+                recycleItemInfo(ii);
+                continue;
+            }
+
+            if (ii.position != newPos) {
+                if (ii.position == mCurItem) {
+                    // Our current item changed position. Follow it.
+                    newCurrItem = newPos;
+                }
+
+                ii.position = newPos;
+                needPopulate = true;
+            }
+        }
+
+        if (isUpdating) {
+            mAdapter.finishUpdate(this);
+        }
+
+        mItems.sort();
+
+        if (needPopulate) {
+            // Reset our known page widths; populate will recompute them.
+            final int childCount = getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                final View child = getChildAt(i);
+                final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                if (!lp.isDecor) {
+                    lp.heightFactor = 0.f;
+                }
+            }
+
+            setCurrentItemInternal(newCurrItem, false, true);
+            requestLayout();
+        }
+    }
+
+    void beginItemUpdates() {
+        if (mItemUpdateDepth++ == 0) {
+            mItemUpdateCurItem = adapterPosition(mCurItem);
+            mItemUpdateCurItemRemoved = false;
+            // Without pages there's nothing to keep, so a full update is just as cheap.
+            mItemUpdateFull = mItems.isEmpty();
+        }
+    }
+
+    void endItemUpdates() {
+        if (mItemUpdateDepth == 0 || --mItemUpdateDepth > 0) {
+            return;
+        }
+        if (mItemUpdateFull || mExpectedAdapterCount != mAdapter.getCount()) {
+            for (int i = 0; i < mItems.size(); i++) {
+                mItems.get(i).changed = false;
+            }
+            dataSetChanged();
+            return;
+        }
+        // Positions are final only now, the adapter already had the final data all along.
+        for (int i = 0; i < mItems.size(); i++) {
+            final ItemInfo ii = mItems.get(i);
+            if (ii.changed) {
+                ii.changed = false;
+                ((RecyclingStackAdapter) mAdapter).rebindItem(ii.object, adapterPosition(ii.position));
+                onItemRebound(ii.object);
+            }
+        }
+        final int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.isDecor) {
+                final ItemInfo ii = infoForChild(child);
+                if (ii != null) {
+                    setChildPosition(lp, ii.position);
+                }
+            }
+        }
+        if (mItemUpdateCurItemRemoved) {
+            // Jump to the page that took the place of the removed one.
+            setCurrentItemInternal(mCurItem, false, true);
+        } else {
+            // The current page keeps its offset, so the scroll position stays valid.
+            populate();
+        }
+        if (mItemUpdateCurItemRemoved || mItemUpdateCurItem != adapterPosition(mCurItem)) {
+            if (mOnPageChangeListener != null) {
+                mOnPageChangeListener.onPageSelected(adapterPosition(mCurItem));
+            }
+            if (mInternalPageChangeListener != null) {
+                mInternalPageChangeListener.onPageSelected(mCurItem);
+            }
+        }
+        requestLayout();
+    }
+
+    void itemRangeChanged(int positionStart, int itemCount) {
+        if (mItemUpdateFull || !(mAdapter instanceof RecyclingStackAdapter)) {
+            return;
+        }
+        final int start = mReverseAdapterPositions ?
+                mExpectedAdapterCount - positionStart - itemCount : positionStart;
+        for (int i = mItems.lowerBound(start); i < mItems.size(); i++) {
+            final ItemInfo ii = mItems.get(i);
+            if (ii.position >= start + itemCount) {
+                break;
+            }
+            // Rebound in endItemUpdates(), once later updates of the batch have moved it.
+            ii.changed = true;
+        }
+    }
+
+    /**
+     * Called after a page was rebound in place by a RecyclingStackAdapter.
+     */
+    void onItemRebound(Object object) {
+    }
 
-                if (mCurItem == ii.position) {
-                    // Keep the current item in the valid range
-                    newCurrItem = Math.max(0, Math.min(mCurItem, adapterCount - 1));
-                    needPopulate = true;
-                }
+    void itemRangeInserted(int positionStart, int itemCount) {
+        final int oldCount = mExpectedAdapterCount;
+        if (mItemUpdateFull || positionStart < 0 || positionStart > oldCount || itemCount < 0) {
+            mItemUpdateFull = true;
+            return;
+        }
+        final int start = mReverseAdapterPositions ? oldCount - positionStart : positionStart;
+        for (int i = mItems.lowerBound(start); i < mItems.size(); i++) {
+            mItems.get(i).position += itemCount;
+        }
+        if (mCurItem >= start) {
+            mCurItem += itemCount;
+        }
+        mExpectedAdapterCount = oldCount + itemCount;
+    }
+
+    void itemRangeRemoved(int positionStart, int itemCount) {
+        final int oldCount = mExpectedAdapterCount;
+        if (mItemUpdateFull || positionStart < 0 || itemCount < 0
+                || positionStart + itemCount > oldCount) {
+            mItemUpdateFull = true;
+            return;
+        }
+        final int start = mReverseAdapterPositions ?
+                oldCount - positionStart - itemCount : positionStart;
+        final int end = start + itemCount;
+        boolean isUpdating = false;
+        for (int i = mItems.lowerBound(start); i < mItems.size(); i++) {
+            final ItemInfo ii = mItems.get(i);
+            if (ii.position >= end) {
+                ii.position -= itemCount;
                 continue;
             }
-
-            if (ii.position != newPos) {
-                if (ii.position == mCurItem) {
-                    // Our current item changed position. Follow it.
-                    newCurrItem = newPos;
-                }
-
-                ii.position = newPos;
-                needPopulate = true;
+            if (!isUpdating) {
+                mAdapter.startUpdate(this);
+                isUpdating = true;
             }
+            mItems.remove(i);
+            i--;
+            destroyAdapterItem(adapterPosition(ii.position, oldCount), ii.object);
+            recycleItemInfo(ii);
         }
-
         if (isUpdating) {
             mAdapter.finishUpdate(this);
         }
+        mExpectedAdapterCount = oldCount - itemCount;
+        if (mCurItem >= end) {
+            mCurItem -= itemCount;
+        } else if (mCurItem >= start) {
+            // The page under the removed ones in the stack becomes the current one.
+            mCurItem = Math.max(0, Math.min(start - 1, mExpectedAdapterCount - 1));
+            mItemUpdateCurItemRemoved = true;
+        }
+        if (mItems.isEmpty()) {
+            mItemUpdateFull = true;
+        }
+    }
 
-        Collections.sort(mItems, COMPARATOR);
-
-        if (needPopulate) {
-            // Reset our known page widths; populate will recompute them.
-            final int childCount = getChildCount();
-            for (int i = 0; i < childCount; i++) {
-                final View child = getChildAt(i);
-                final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-                if (!lp.isDecor) {
-                    lp.heightFactor = 0.f;
-                }
+    void itemMoved(int fromPosition, int toPosition) {
+        final int count = mExpectedAdapterCount;
+        if (mItemUpdateFull || fromPosition < 0 || fromPosition >= count
+                || toPosition < 0 || toPosition >= count) {
+            mItemUpdateFull = true;
+            return;
+        }
+        final int from = adapterPosition(fromPosition);
+        final int to = adapterPosition(toPosition);
+        if (from == to) {
+            return;
+        }
+        final int shift = from < to ? -1 : 1;
+        final int low = Math.min(from, to);
+        final int high = Math.max(from, to);
+        for (int i = mItems.lowerBound(low); i < mItems.size(); i++) {
+            final ItemInfo ii = mItems.get(i);
+            if (ii.position > high) {
+                break;
             }
-
-            setCurrentItemInternal(newCurrItem, false, true);
-            requestLayout();
+            ii.position = ii.position == from ? to : ii.position + shift;
+        }
+        mItems.sort();
+        if (mCurItem == from) {
+            mCurItem = to;
+        } else if (mCurItem >= low && mCurItem <= high) {
+            mCurItem += shift;
         }
     }
 
@@ -844,11 +1720,33 @@ public class OrientedViewPager extends ViewGroup {
     }
 
     void populate(int newCurrentItem) {
+        mWorkCounters.mPopulateCount++;
+        TraceCompat.beginSection(TraceCompat.SECTION_POPULATE);
+        beginFramePhase(GestureFrameStats.PHASE_POPULATE);
+        populateItems(newCurrentItem);
+        endFramePhase();
+        TraceCompat.endSection();
+        if (TraceCompat.isEnabled()) {
+            TraceCompat.setCounter(TraceCompat.COUNTER_LIVE_PAGES, getChildCount() - mDecorChildCount);
+            TraceCompat.setCounter(TraceCompat.COUNTER_WINDOW_SIZE, mItems.isEmpty() ? 0 :
+                    mItems.get(mItems.size() - 1).position - mItems.get(0).position + 1);
+        }
+    }
+
+    private void populateItems(int newCurrentItem) {
         ItemInfo oldCurInfo = null;
         int focusDirection = View.FOCUS_FORWARD;
         if (mCurItem != newCurrentItem) {
             focusDirection = mCurItem < newCurrentItem ? View.FOCUS_DOWN : View.FOCUS_UP;
             oldCurInfo = infoForPosition(mCurItem);
+            if (oldCurInfo != null) {
+                // Only its position and offset are needed, and the item itself may be
+                // recycled while populating.
+                mOldCurItem.position = oldCurInfo.position;
+                mOldCurItem.sizeFactor = oldCurInfo.sizeFactor;
+                mOldCurItem.offset = oldCurInfo.offset;
+                oldCurInfo = mOldCurItem;
+            }
             mCurItem = newCurrentItem;
         }
 
@@ -876,10 +1774,9 @@ public class OrientedViewPager extends ViewGroup {
 
         mAdapter.startUpdate(this);
 
-        final int pageLimit = mOffscreenPageLimit;
-        final int startPos = Math.max(0, mCurItem - pageLimit);
+        final int startPos = Math.max(0, mCurItem - mOffscreenPageLimitBefore);
         final int N = mAdapter.getCount();
-        final int endPos = Math.min(N - 1, mCurItem + pageLimit);
+        final int endPos = Math.min(N - 1, mCurItem + mOffscreenPageLimitAfter);
 
         if (N != mExpectedAdapterCount) {
             String resName;
@@ -897,14 +1794,10 @@ public class OrientedViewPager extends ViewGroup {
         }
 
         // Locate the currently focused item or add it if needed.
-        int curIndex = -1;
-        ItemInfo curItem = null;
-        for (curIndex = 0; curIndex < mItems.size(); curIndex++) {
-            final ItemInfo ii = mItems.get(curIndex);
-            if (ii.position >= mCurItem) {
-                if (ii.position == mCurItem) curItem = ii;
-                break;
-            }
+        int curIndex = mItems.lowerBound(mCurItem);
+        ItemInfo curItem = curIndex < mItems.size() ? mItems.get(curIndex) : null;
+        if (curItem != null && curItem.position != mCurItem) {
+            curItem = null;
         }
 
         if (curItem == null && N > 0) {
@@ -926,17 +1819,20 @@ public class OrientedViewPager extends ViewGroup {
                     if (ii == null) {
                         break;
                     }
-                    if (pos == ii.position && !ii.scrolling) {
+                    // Nothing is populated in between, go straight to the next item.
+                    pos = ii.position;
+                    if (!ii.scrolling) {
                         mItems.remove(itemIndex);
-                        mAdapter.destroyItem(this, pos, ii.object);
+                        destroyAdapterItem(adapterPosition(pos), ii.object);
                         if (DEBUG) {
                             Log.i(TAG, "populate() - destroyItem() with pos: " + pos +
                                     " view: " + ((View) ii.object));
                         }
-                        itemIndex--;
+                        recycleItemInfo(ii);
                         curIndex--;
-                        ii = itemIndex >= 0 ? mItems.get(itemIndex) : null;
                     }
+                    itemIndex--;
+                    ii = itemIndex >= 0 ? mItems.get(itemIndex) : null;
                 } else if (ii != null && pos == ii.position) {
                     extraSizeTopLeft += ii.sizeFactor;
                     itemIndex--;
@@ -960,15 +1856,20 @@ public class OrientedViewPager extends ViewGroup {
                         if (ii == null) {
                             break;
                         }
-                        if (pos == ii.position && !ii.scrolling) {
+                        // Nothing is populated in between, go straight to the next item.
+                        pos = ii.position;
+                        if (!ii.scrolling) {
                             mItems.remove(itemIndex);
-                            mAdapter.destroyItem(this, pos, ii.object);
+                            destroyAdapterItem(adapterPosition(pos), ii.object);
                             if (DEBUG) {
                                 Log.i(TAG, "populate() - destroyItem() with pos: " + pos +
                                         " view: " + ((View) ii.object));
                             }
-                            ii = itemIndex < mItems.size() ? mItems.get(itemIndex) : null;
+                            recycleItemInfo(ii);
+                        } else {
+                            itemIndex++;
                         }
+                        ii = itemIndex < mItems.size() ? mItems.get(itemIndex) : null;
                     } else if (ii != null && pos == ii.position) {
                         extraSizeBottomRight += ii.sizeFactor;
                         itemIndex++;
@@ -992,7 +1893,8 @@ public class OrientedViewPager extends ViewGroup {
             }
         }
 
-        mAdapter.setPrimaryItem(this, mCurItem, curItem != null ? curItem.object : null);
+        mAdapter.setPrimaryItem(this, adapterPosition(mCurItem),
+                curItem != null ? curItem.object : null);
 
         mAdapter.finishUpdate(this);
 
@@ -1003,14 +1905,13 @@ public class OrientedViewPager extends ViewGroup {
             for (int i = 0; i < childCount; i++) {
                 final View child = getChildAt(i);
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-                lp.childIndex = i;
                 if (!lp.isDecor && lp.heightFactor == 0.f) {
                     // 0 means requery the adapter for this, it doesn't have a valid width
                     // .
                     final ItemInfo ii = infoForChild(child);
                     if (ii != null) {
                         lp.heightFactor = ii.sizeFactor;
-                        lp.position = ii.position;
+                        setChildPosition(lp, ii.position);
                     }
                 }
             }
@@ -1018,13 +1919,12 @@ public class OrientedViewPager extends ViewGroup {
             for (int i = 0; i < childCount; i++) {
                 final View child = getChildAt(i);
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-                lp.childIndex = i;
                 if (!lp.isDecor && lp.widthFactor == 0.f) {
                     // 0 means requery the adapter for this, it doesn't have a valid width.
                     final ItemInfo ii = infoForChild(child);
                     if (ii != null) {
                         lp.widthFactor = ii.sizeFactor;
-                        lp.position = ii.position;
+                        setChildPosition(lp, ii.position);
                     }
                 }
             }
@@ -1046,22 +1946,116 @@ public class OrientedViewPager extends ViewGroup {
                 }
             }
         }
+
+        if (mScrollState == SCROLL_STATE_IDLE) {
+            schedulePrefetch(0);
+        }
     }
 
+    private void setChildPosition(LayoutParams lp, int position) {
+        if (lp.position != position) {
+            lp.position = position;
+            mChildDrawingOrderSorted = false;
+        }
+    }
+
+    /**
+     * Makes sure mChildDrawingOrder holds all the children in the drawing order. Normally it's
+     * kept up to date as children are added and removed, so this does nothing.
+     */
     private void sortChildDrawingOrder() {
-        if (mDrawingOrder != DRAW_ORDER_DEFAULT) {
-            if (mDrawingOrderedChildren == null) {
-                mDrawingOrderedChildren = new ArrayList<View>();
-            } else {
-                mDrawingOrderedChildren.clear();
-            }
-            final int childCount = getChildCount();
+        final int childCount = getChildCount();
+        if (!mChildDrawingOrderValid || mChildDrawingOrderCount != childCount) {
+            ensureChildDrawingOrderCapacity(childCount);
             for (int i = 0; i < childCount; i++) {
-                final View child = getChildAt(i);
-                mDrawingOrderedChildren.add(child);
+                mChildDrawingOrder[i] = i;
+            }
+            mChildDrawingOrderCount = childCount;
+            mChildDrawingOrderValid = true;
+            mChildDrawingOrderSorted = false;
+        }
+        if (!mChildDrawingOrderSorted) {
+            // Insertion sort, in place. Usually only a few children are out of place.
+            final int[] order = mChildDrawingOrder;
+            for (int i = 1; i < childCount; i++) {
+                final int childIndex = order[i];
+                int j = i - 1;
+                while (j >= 0 && compareDrawingOrder(order[j], childIndex) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = childIndex;
+            }
+            mChildDrawingOrderSorted = true;
+        }
+    }
+
+    private int compareDrawingOrder(int lhsIndex, int rhsIndex) {
+        final LayoutParams llp = (LayoutParams) getChildAt(lhsIndex).getLayoutParams();
+        final LayoutParams rlp = (LayoutParams) getChildAt(rhsIndex).getLayoutParams();
+        if (llp.isDecor != rlp.isDecor) {
+            return llp.isDecor ? 1 : -1;
+        }
+        return llp.position - rlp.position;
+    }
+
+    private void ensureChildDrawingOrderCapacity(int capacity) {
+        if (mChildDrawingOrder.length < capacity) {
+            final int[] order = new int[Math.max(capacity, mChildDrawingOrder.length * 2)];
+            System.arraycopy(mChildDrawingOrder, 0, order, 0, mChildDrawingOrderCount);
+            mChildDrawingOrder = order;
+        }
+    }
+
+    /**
+     * Updates mChildDrawingOrder after a child was added at the given index.
+     *
+     * @param positionKnown True if the position of the child is already known, so that it can
+     *                      be put straight into place.
+     */
+    private void onChildDrawingOrderAdded(int childIndex, boolean positionKnown) {
+        if (!mChildDrawingOrderValid || mChildDrawingOrderCount != getChildCount() - 1) {
+            return;
+        }
+        ensureChildDrawingOrderCapacity(mChildDrawingOrderCount + 1);
+        final int[] order = mChildDrawingOrder;
+        for (int i = 0; i < mChildDrawingOrderCount; i++) {
+            if (order[i] >= childIndex) {
+                order[i]++;
+            }
+        }
+        int j = mChildDrawingOrderCount - 1;
+        if (positionKnown && mChildDrawingOrderSorted) {
+            while (j >= 0 && compareDrawingOrder(order[j], childIndex) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+        } else {
+            mChildDrawingOrderSorted = false;
+        }
+        order[j + 1] = childIndex;
+        mChildDrawingOrderCount++;
+    }
+
+    /**
+     * Updates mChildDrawingOrder after the child at the given index was removed.
+     */
+    private void onChildDrawingOrderRemoved(int childIndex) {
+        if (!mChildDrawingOrderValid || mChildDrawingOrderCount != getChildCount() + 1) {
+            mChildDrawingOrderValid = false;
+            return;
+        }
+        final int[] order = mChildDrawingOrder;
+        int shift = 0;
+        for (int i = 0; i < mChildDrawingOrderCount; i++) {
+            final int index = order[i];
+            if (index == childIndex) {
+                shift++;
+            } else {
+                order[i - shift] = index > childIndex ? index - 1 : index;
             }
-            Collections.sort(mDrawingOrderedChildren, sPositionComparator);
         }
+        mChildDrawingOrderCount -= shift;
     }
 
     private void calculatePageOffsets(ItemInfo curItem, int curIndex, ItemInfo oldCurInfo) {
@@ -1073,44 +2067,28 @@ public class OrientedViewPager extends ViewGroup {
             final int oldCurPosition = oldCurInfo.position;
             // Base offsets off of oldCurInfo.
             if (oldCurPosition < curItem.position) {
-                int itemIndex = 0;
-                ItemInfo ii = null;
+                int lastPos = oldCurPosition;
                 float offset = oldCurInfo.offset + oldCurInfo.sizeFactor + marginOffset;
-                for (int pos = oldCurPosition + 1;
-                     pos <= curItem.position && itemIndex < mItems.size(); pos++) {
-                    ii = mItems.get(itemIndex);
-                    while (pos > ii.position && itemIndex < mItems.size() - 1) {
-                        itemIndex++;
-                        ii = mItems.get(itemIndex);
-                    }
-                    while (pos < ii.position) {
-                        // We don't have an item populated for this,
-                        // ask the adapter for an offset.
-                        offset += mAdapter.getPageWidth(pos) + marginOffset;
-                        pos++;
-                    }
+                for (int i = mItems.lowerBound(oldCurPosition + 1); i <= curIndex; i++) {
+                    final ItemInfo ii = mItems.get(i);
+                    // We don't have items populated for the gap,
+                    // ask the adapter for an offset.
+                    offset += getGapSize(lastPos + 1, ii.position, marginOffset);
                     ii.offset = offset;
                     offset += ii.sizeFactor + marginOffset;
+                    lastPos = ii.position;
                 }
             } else if (oldCurPosition > curItem.position) {
-                int itemIndex = mItems.size() - 1;
-                ItemInfo ii = null;
+                int lastPos = oldCurPosition;
                 float offset = oldCurInfo.offset;
-                for (int pos = oldCurPosition - 1;
-                     pos >= curItem.position && itemIndex >= 0; pos--) {
-                    ii = mItems.get(itemIndex);
-                    while (pos < ii.position && itemIndex > 0) {
-                        itemIndex--;
-                        ii = mItems.get(itemIndex);
-                    }
-                    while (pos > ii.position) {
-                        // We don't have an item populated for this,
-                        // ask the adapter for an offset.
-                        offset -= mAdapter.getPageWidth(pos) + marginOffset;
-                        pos--;
-                    }
+                for (int i = mItems.lowerBound(oldCurPosition) - 1; i >= curIndex; i--) {
+                    final ItemInfo ii = mItems.get(i);
+                    // We don't have items populated for the gap,
+                    // ask the adapter for an offset.
+                    offset -= getGapSize(ii.position + 1, lastPos, marginOffset);
                     offset -= ii.sizeFactor + marginOffset;
                     ii.offset = offset;
+                    lastPos = ii.position;
                 }
             }
         }
@@ -1125,9 +2103,8 @@ public class OrientedViewPager extends ViewGroup {
         // Previous pages
         for (int i = curIndex - 1; i >= 0; i--, pos--) {
             final ItemInfo ii = mItems.get(i);
-            while (pos > ii.position) {
-                offset -= mAdapter.getPageWidth(pos--) + marginOffset;
-            }
+            offset -= getGapSize(ii.position + 1, pos + 1, marginOffset);
+            pos = ii.position;
             offset -= ii.sizeFactor + marginOffset;
             ii.offset = offset;
             if (ii.position == 0) mFirstOffset = offset;
@@ -1137,9 +2114,8 @@ public class OrientedViewPager extends ViewGroup {
         // Next pages
         for (int i = curIndex + 1; i < itemCount; i++, pos++) {
             final ItemInfo ii = mItems.get(i);
-            while (pos < ii.position) {
-                offset += mAdapter.getPageWidth(pos++) + marginOffset;
-            }
+            offset += getGapSize(pos, ii.position, marginOffset);
+            pos = ii.position;
             if (ii.position == N - 1) {
                 mLastOffset = offset + ii.sizeFactor - 1;
             }
@@ -1150,6 +2126,30 @@ public class OrientedViewPager extends ViewGroup {
         mNeedCalculatePageOffsets = false;
     }
 
+    private float getPageWidth(int position) {
+        return mAdapter.getPageWidth(adapterPosition(position));
+    }
+
+    /**
+     * @return Size (with margins) of the pages in [from, to), none of which are populated.
+     * Gaps larger than MAX_MEASURED_GAP are assumed to hold pages of the same size as the
+     * first one, so that jumping over them doesn't cost more than jumping over a few pages.
+     */
+    private float getGapSize(int from, int to, float marginOffset) {
+        final int count = to - from;
+        if (count <= 0) {
+            return 0.f;
+        }
+        if (count > MAX_MEASURED_GAP) {
+            return count * (getPageWidth(from) + marginOffset);
+        }
+        float size = 0.f;
+        for (int pos = from; pos < to; pos++) {
+            size += getPageWidth(pos) + marginOffset;
+        }
+        return size;
+    }
+
     /**
      * This is the persistent state that is saved by ViewPager.  Only needed
      * if you are creating a sublass of ViewPager that must save its own
@@ -1207,7 +2207,7 @@ public class OrientedViewPager extends ViewGroup {
     public Parcelable onSaveInstanceState() {
         Parcelable superState = super.onSaveInstanceState();
         ViewPagerSavedState ss = new ViewPagerSavedState(superState);
-        ss.position = mCurItem;
+        ss.position = mAdapter != null ? adapterPosition(mCurItem) : mCurItem;
         if (mAdapter != null) {
             ss.adapterState = mAdapter.saveState();
         }
@@ -1226,7 +2226,7 @@ public class OrientedViewPager extends ViewGroup {
 
         if (mAdapter != null) {
             mAdapter.restoreState(ss.adapterState, ss.loader);
-            setCurrentItemInternal(ss.position, false, true);
+            setCurrentItemInternal(adapterPosition(ss.position), false, true);
         } else {
             mRestoredCurItem = ss.position;
             mRestoredAdapterState = ss.adapterState;
@@ -1241,15 +2241,34 @@ public class OrientedViewPager extends ViewGroup {
         }
         final LayoutParams lp = (LayoutParams) params;
         lp.isDecor |= child instanceof Decor;
-        if (mInLayout) {
-            if (lp != null && lp.isDecor) {
-                throw new IllegalStateException("Cannot add pager decor view during layout");
+        lp.culled = false;
+        lp.needsLayout = false;
+        lp.transformPosition = Float.NaN;
+        lp.itemInfo = null;
+        if (!lp.isDecor) {
+            // Recycled pages come back with the size of the page they were bound to before
+            lp.widthFactor = 0.f;
+            lp.heightFactor = 0.f;
+        }
+        final boolean positionKnown = lp.isDecor || mInstantiatingPosition >= 0;
+        if (!lp.isDecor && mInstantiatingPosition >= 0) {
+            lp.position = mInstantiatingPosition;
+        }
+        mChangingChild = true;
+        try {
+            if (mInLayout) {
+                if (lp != null && lp.isDecor) {
+                    throw new IllegalStateException("Cannot add pager decor view during layout");
+                }
+                lp.needsMeasure = true;
+                addViewInLayout(child, index, params);
+            } else {
+                super.addView(child, index, params);
             }
-            lp.needsMeasure = true;
-            addViewInLayout(child, index, params);
-        } else {
-            super.addView(child, index, params);
+        } finally {
+            mChangingChild = false;
         }
+        onChildDrawingOrderAdded(index < 0 ? getChildCount() - 1 : index, positionKnown);
 
         if (USE_CACHE) {
             if (child.getVisibility() != GONE) {
@@ -1262,17 +2281,39 @@ public class OrientedViewPager extends ViewGroup {
 
     @Override
     public void removeView(View view) {
-        if (mInLayout) {
-            removeViewInLayout(view);
-        } else {
-            super.removeView(view);
+        final int index = indexOfChild(view);
+        mChangingChild = true;
+        try {
+            if (mInLayout) {
+                removeViewInLayout(view);
+            } else {
+                super.removeView(view);
+            }
+        } finally {
+            mChangingChild = false;
+        }
+        if (index >= 0) {
+            onChildDrawingOrderRemoved(index);
         }
     }
 
     ItemInfo infoForChild(View child) {
+        final ViewGroup.LayoutParams params = child.getLayoutParams();
+        final LayoutParams lp = (params instanceof LayoutParams) ? (LayoutParams) params : null;
+        if (lp != null && lp.itemInfo != null) {
+            // Most likely still the right one, as long as the item is held by the pager.
+            final ItemInfo ii = lp.itemInfo;
+            final int index = mItems.indexOfPosition(ii.position);
+            if (index >= 0 && mItems.get(index) == ii && mAdapter.isViewFromObject(child, ii.object)) {
+                return ii;
+            }
+        }
         for (int i = 0; i < mItems.size(); i++) {
             ItemInfo ii = mItems.get(i);
             if (mAdapter.isViewFromObject(child, ii.object)) {
+                if (lp != null) {
+                    lp.itemInfo = ii;
+                }
                 return ii;
             }
         }
@@ -1291,13 +2332,8 @@ public class OrientedViewPager extends ViewGroup {
     }
 
     ItemInfo infoForPosition(int position) {
-        for (int i = 0; i < mItems.size(); i++) {
-            ItemInfo ii = mItems.get(i);
-            if (ii.position == position) {
-                return ii;
-            }
-        }
-        return null;
+        final int index = mItems.indexOfPosition(position);
+        return index >= 0 ? mItems.get(index) : null;
     }
 
     @Override
@@ -1308,6 +2344,14 @@ public class OrientedViewPager extends ViewGroup {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        TraceCompat.beginSection(TraceCompat.SECTION_MEASURE);
+        beginFramePhase(GestureFrameStats.PHASE_MEASURE);
+        measurePages(widthMeasureSpec, heightMeasureSpec);
+        endFramePhase();
+        TraceCompat.endSection();
+    }
+
+    private void measurePages(int widthMeasureSpec, int heightMeasureSpec) {
         // For simple implementation, our internal size is always 0.
         // We depend on the container to specify the layout size of
         // our view.  We can't really know what it is since we will be
@@ -1400,16 +2444,21 @@ public class OrientedViewPager extends ViewGroup {
                         + ": " + mChildWidthMeasureSpec);
 
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-                if (lp == null || !lp.isDecor) {
+                if (lp != null && lp.culled) {
+                    // Measured once it becomes visible again.
+                    lp.needsMeasure = true;
+                } else if (lp == null || !lp.isDecor) {
                     if (mOrientation == Orientation.VERTICAL) {
                         final int heightSpec = MeasureSpec.makeMeasureSpec(
                                 (int) (childHeightSize * lp.heightFactor), MeasureSpec.EXACTLY);
                         child.measure(mChildWidthMeasureSpec, heightSpec);
+                        mWorkCounters.mPageMeasureCount++;
                     } else {
 
                         final int widthSpec = MeasureSpec.makeMeasureSpec(
                                 (int) (childWidthSize * lp.widthFactor), MeasureSpec.EXACTLY);
                         child.measure(widthSpec, mChildHeightMeasureSpec);
+                        mWorkCounters.mPageMeasureCount++;
                     }
                 }
             }
@@ -1492,6 +2541,14 @@ public class OrientedViewPager extends ViewGroup {
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        TraceCompat.beginSection(TraceCompat.SECTION_LAYOUT);
+        beginFramePhase(GestureFrameStats.PHASE_LAYOUT);
+        layoutPages(l, t, r, b);
+        endFramePhase();
+        TraceCompat.endSection();
+    }
+
+    private void layoutPages(int l, int t, int r, int b) {
         final int count = getChildCount();
         int width = r - l;
         int height = b - t;
@@ -1561,7 +2618,10 @@ public class OrientedViewPager extends ViewGroup {
             }
         }
 
-        final int childSize = (mOrientation == Orientation.VERTICAL) ? height - paddingTop - paddingBottom : width - paddingLeft - paddingRight;
+        mPageAreaLeft = paddingLeft;
+        mPageAreaTop = paddingTop;
+        mPageAreaWidth = width - paddingLeft - paddingRight;
+        mPageAreaHeight = height - paddingTop - paddingBottom;
         // Page views. Do this once we have the right padding offsets from above.
         for (int i = 0; i < count; i++) {
             final View child = getChildAt(i);
@@ -1569,46 +2629,19 @@ public class OrientedViewPager extends ViewGroup {
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
                 ItemInfo ii;
                 if (!lp.isDecor && (ii = infoForChild(child)) != null) {
-                    int topLeftoff = (int) (childSize * ii.offset);
-                    int childLeft;
-                    int childTop;
-                    if (mOrientation == Orientation.VERTICAL) {
-                        childLeft = paddingLeft;
-                        childTop = paddingTop + topLeftoff;
-                        if (lp.needsMeasure) {
-                            // This was added during layout and needs measurement.
-                            // Do it now that we know what we're working with.
-                            lp.needsMeasure = false;
-                            final int widthSpec = MeasureSpec.makeMeasureSpec(
-                                    (int) (width - paddingLeft - paddingRight),
-                                    MeasureSpec.EXACTLY);
-                            final int heightSpec = MeasureSpec.makeMeasureSpec(
-                                    (int) (childSize * lp.heightFactor),
-                                    MeasureSpec.EXACTLY);
-                            child.measure(widthSpec, heightSpec);
+                    if (lp.culled) {
+                        // Keep the page in its slot, so that its transform position stays
+                        // correct, but leave the actual layout until it's visible again.
+                        final int delta = getPageStart(ii) - ((mOrientation == Orientation.VERTICAL) ? child.getTop() : child.getLeft());
+                        if (mOrientation == Orientation.VERTICAL) {
+                            child.offsetTopAndBottom(delta);
+                        } else {
+                            child.offsetLeftAndRight(delta);
                         }
+                        lp.needsLayout = true;
                     } else {
-                        childLeft = paddingLeft + topLeftoff;
-                        childTop = paddingTop;
-                        if (lp.needsMeasure) {
-                            // This was added during layout and needs measurement.
-                            // Do it now that we know what we're working with.
-                            lp.needsMeasure = false;
-                            final int widthSpec = MeasureSpec.makeMeasureSpec(
-                                    (int) (childSize * lp.widthFactor),
-                                    MeasureSpec.EXACTLY);
-                            final int heightSpec = MeasureSpec.makeMeasureSpec(
-                                    (int) (height - paddingTop - paddingBottom),
-                                    MeasureSpec.EXACTLY);
-                            child.measure(widthSpec, heightSpec);
-                        }
+                        layoutPage(child, lp, ii);
                     }
-                    if (DEBUG) Log.v(TAG, "Positioning #" + i + " " + child + " f=" + ii.object
-                            + ":" + childLeft + "," + childTop + " " + child.getMeasuredWidth()
-                            + "x" + child.getMeasuredHeight());
-                    child.layout(childLeft, childTop,
-                            childLeft + child.getMeasuredWidth(),
-                            childTop + child.getMeasuredHeight());
                 }
             }
         }
@@ -1622,8 +2655,124 @@ public class OrientedViewPager extends ViewGroup {
         mFirstLayout = false;
     }
 
+    private int getPageStart(ItemInfo ii) {
+        if (mOrientation == Orientation.VERTICAL) {
+            return mPageAreaTop + (int) (mPageAreaHeight * ii.offset);
+        } else {
+            return mPageAreaLeft + (int) (mPageAreaWidth * ii.offset);
+        }
+    }
+
+    private void layoutPage(View child, LayoutParams lp, ItemInfo ii) {
+        int childLeft;
+        int childTop;
+        if (mOrientation == Orientation.VERTICAL) {
+            childLeft = mPageAreaLeft;
+            childTop = getPageStart(ii);
+            if (lp.needsMeasure) {
+                // This was added during layout and needs measurement.
+                // Do it now that we know what we're working with.
+                lp.needsMeasure = false;
+                final int widthSpec = MeasureSpec.makeMeasureSpec(mPageAreaWidth,
+                        MeasureSpec.EXACTLY);
+                final int heightSpec = MeasureSpec.makeMeasureSpec(
+                        (int) (mPageAreaHeight * lp.heightFactor),
+                        MeasureSpec.EXACTLY);
+                child.measure(widthSpec, heightSpec);
+                mWorkCounters.mPageMeasureCount++;
+            }
+        } else {
+            childLeft = getPageStart(ii);
+            childTop = mPageAreaTop;
+            if (lp.needsMeasure) {
+                // This was added during layout and needs measurement.
+                // Do it now that we know what we're working with.
+                lp.needsMeasure = false;
+                final int widthSpec = MeasureSpec.makeMeasureSpec(
+                        (int) (mPageAreaWidth * lp.widthFactor),
+                        MeasureSpec.EXACTLY);
+                final int heightSpec = MeasureSpec.makeMeasureSpec(mPageAreaHeight,
+                        MeasureSpec.EXACTLY);
+                child.measure(widthSpec, heightSpec);
+                mWorkCounters.mPageMeasureCount++;
+            }
+        }
+        if (DEBUG) Log.v(TAG, "Positioning " + child + " f=" + ii.object
+                + ":" + childLeft + "," + childTop + " " + child.getMeasuredWidth()
+                + "x" + child.getMeasuredHeight());
+        lp.needsLayout = false;
+        child.layout(childLeft, childTop,
+                childLeft + child.getMeasuredWidth(),
+                childTop + child.getMeasuredHeight());
+    }
+
+    /**
+     * Takes pages that the transformer made fully transparent out of the draw pass (and
+     * defers their measure and layout), bringing them back once they become visible.
+     *
+     * @return true if the page was brought back and measured or laid out anew, so it has to be
+     * transformed again.
+     */
+    private boolean updatePageCulling(View child, LayoutParams lp) {
+        final boolean culled = child.getAlpha() == 0f;
+        if (culled == lp.culled) {
+            return false;
+        }
+        lp.culled = culled;
+        if (!culled && (lp.needsLayout || lp.needsMeasure) && !mFirstLayout) {
+            final ItemInfo ii = infoForChild(child);
+            if (ii != null) {
+                layoutPage(child, lp, ii);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the page is still where it was when it was last transformed, i.e. its
+     * transform position is up to date with the scroll and the layout.
+     */
+    boolean isTransformPositionCurrent(View child) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        final boolean vertical = mOrientation == Orientation.VERTICAL;
+        final int scroll = vertical ? getScrollY() : getScrollX();
+        return lp.transformPosition == (float) ((vertical ? child.getTop() : child.getLeft()) - scroll) / getClientSize();
+    }
+
+    private void uncullAllPages() {
+        boolean needsLayout = false;
+        final int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+            if (lp.culled) {
+                lp.culled = false;
+                needsLayout |= lp.needsLayout || lp.needsMeasure;
+            }
+        }
+        if (needsLayout) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (((LayoutParams) child.getLayoutParams()).culled) {
+            // Fully transparent, there's nothing to draw.
+            return false;
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
     @Override
     public void computeScroll() {
+        final boolean checked = beginAllocationCheck();
+        computeScrollOffset();
+        endAllocationCheck(checked, "computeScroll");
+    }
+
+    private void computeScrollOffset() {
         if (!mScroller.isFinished() && mScroller.computeScrollOffset()) {
             int oldX = getScrollX();
             int oldY = getScrollY();
@@ -1655,6 +2804,13 @@ public class OrientedViewPager extends ViewGroup {
     }
 
     private boolean pageScrolled(int pos) {
+        final boolean checked = beginAllocationCheck();
+        final boolean scrolled = dispatchPageScrolled(pos);
+        endAllocationCheck(checked, "pageScrolled");
+        return scrolled;
+    }
+
+    private boolean dispatchPageScrolled(int pos) {
         if (mItems.size() == 0) {
             mCalledSuper = false;
             onPageScrolled(0, 0, 0);
@@ -1673,7 +2829,9 @@ public class OrientedViewPager extends ViewGroup {
         final int offsetPixels = (int) (pageOffset * sizeWithMargin);
 
         mCalledSuper = false;
+        TraceCompat.beginSection(TraceCompat.SECTION_PAGE_SCROLLED);
         onPageScrolled(currentPage, pageOffset, offsetPixels);
+        TraceCompat.endSection();
         if (!mCalledSuper) {
             throw new IllegalStateException(
                     "onPageScrolled did not call superclass implementation");
@@ -1774,23 +2932,70 @@ public class OrientedViewPager extends ViewGroup {
         }
 
         if (mOnPageChangeListener != null) {
-            mOnPageChangeListener.onPageScrolled(position, offset, offsetPixels);
+            if (!mReverseAdapterPositions) {
+                mOnPageChangeListener.onPageScrolled(position, offset, offsetPixels);
+            } else if (offset == 0) {
+                mOnPageChangeListener.onPageScrolled(adapterPosition(position), 0, 0);
+            } else {
+                // Scrolled between position + 1 and position, in the reversed order
+                mOnPageChangeListener.onPageScrolled(adapterPosition(position + 1), 1 - offset,
+                        (int) ((1 - offset) * (getClientSize() + mPageMargin)));
+            }
         }
         if (mInternalPageChangeListener != null) {
             mInternalPageChangeListener.onPageScrolled(position, offset, offsetPixels);
         }
 
         if (mPageTransformer != null) {
-            final int scroll = (mOrientation == Orientation.VERTICAL) ? getScrollY() : getScrollX();
+            final boolean vertical = mOrientation == Orientation.VERTICAL;
+            final int scroll = vertical ? getScrollY() : getScrollX();
+            final int clientSize = getClientSize();
             final int childCount = getChildCount();
+            if (mTransformPages.length < childCount) {
+                mTransformPages = new View[childCount];
+                mTransformPositions = new float[childCount];
+            }
+            int pageCount = 0;
             for (int i = 0; i < childCount; i++) {
                 final View child = getChildAt(i);
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
 
                 if (lp.isDecor) continue;
 
-                final float transformPos = (float) (((mOrientation == Orientation.VERTICAL) ? child.getTop() : child.getLeft()) - scroll) / getClientSize();
-                mPageTransformer.transformPage(child, transformPos);
+                final float transformPosition = (float) ((vertical ? child.getTop() : child.getLeft()) - scroll) / clientSize;
+                lp.transformPosition = transformPosition;
+                mTransformPages[pageCount] = child;
+                mTransformPositions[pageCount] = transformPosition;
+                pageCount++;
+            }
+            beginFramePhase(GestureFrameStats.PHASE_TRANSFORM);
+            mPageTransformer.transformPages(scroll, mTransformPages, mTransformPositions, pageCount);
+            mWorkCounters.mTransformCount++;
+            mWorkCounters.mTransformedPageCount += pageCount;
+            endFramePhase();
+            int relaidCount = 0;
+            for (int i = 0; i < pageCount; i++) {
+                final View page = mTransformPages[i];
+                // Don't hold on to pages that may get removed before the next frame.
+                mTransformPages[i] = null;
+                final LayoutParams lp = (LayoutParams) page.getLayoutParams();
+                if (updatePageCulling(page, lp)) {
+                    // It was just transformed with the size it had while culled.
+                    lp.transformPosition = (float) ((vertical ? page.getTop() : page.getLeft()) - scroll) / clientSize;
+                    mTransformPages[relaidCount] = page;
+                    mTransformPositions[relaidCount] = lp.transformPosition;
+                    relaidCount++;
+                }
+            }
+            if (relaidCount > 0) {
+                beginFramePhase(GestureFrameStats.PHASE_TRANSFORM);
+                mPageTransformer.transformPages(scroll, mTransformPages, mTransformPositions, relaidCount);
+                mWorkCounters.mTransformCount++;
+                mWorkCounters.mTransformedPageCount += relaidCount;
+                endFramePhase();
+                for (int i = 0; i < relaidCount; i++) {
+                    mTransformPages[i] = null;
+                }
             }
         }
 
@@ -1800,6 +3005,8 @@ public class OrientedViewPager extends ViewGroup {
     private void completeScroll(boolean postEvents) {
         boolean needPopulate = mScrollState == SCROLL_STATE_SETTLING;
         if (needPopulate) {
+            // Ending a settle isn't a steady-state frame.
+            skipAllocationCheck();
             // Done with scroll, no longer want to cache view drawing.
             setScrollingCacheEnabled(false);
             mScroller.abortAnimation();
@@ -1832,12 +3039,21 @@ public class OrientedViewPager extends ViewGroup {
         return (axis < mGutterSize && dAxis > 0) || (axis > (mOrientation == Orientation.VERTICAL ? getHeight() : getWidth()) - mGutterSize && dAxis < 0);
     }
 
-    private void enableLayers(boolean enable) {
+    /**
+     * Called when the pager starts (or stops) scrolling with a page transformer set, as such
+     * transformations benefit from hardware layers. Puts all the pages on hardware layers
+     * by default.
+     */
+    void enableLayers(boolean enable) {
         final int childCount = getChildCount();
+        final int layerType = enable ?
+                ViewCompat.LAYER_TYPE_HARDWARE : ViewCompat.LAYER_TYPE_NONE;
         for (int i = 0; i < childCount; i++) {
-            final int layerType = enable ?
-                    ViewCompat.LAYER_TYPE_HARDWARE : ViewCompat.LAYER_TYPE_NONE;
-            ViewCompat.setLayerType(getChildAt(i), layerType, null);
+            final View child = getChildAt(i);
+            // Setting the same type again still resets the layer paint and invalidates the page.
+            if (ViewCompat.getLayerType(child) != layerType) {
+                ViewCompat.setLayerType(child, layerType, null);
+            }
         }
     }
 
@@ -2141,6 +3357,9 @@ public class OrientedViewPager extends ViewGroup {
                         final float x = MotionEventCompat.getX(ev, activePointerIndex);
                         needsInvalidate |= performDrag(x);
                     }
+                    if (mPrefetchEnabled && mAdapter instanceof RecyclingStackAdapter) {
+                        schedulePrefetch(predictDragDirection());
+                    }
                 }
                 break;
             case MotionEvent.ACTION_UP:
@@ -2236,6 +3455,13 @@ public class OrientedViewPager extends ViewGroup {
     }
 
     private boolean performDrag(float dimen) {
+        final boolean checked = beginAllocationCheck();
+        final boolean needsInvalidate = dragBy(dimen);
+        endAllocationCheck(checked, "performDrag");
+        return needsInvalidate;
+    }
+
+    private boolean dragBy(float dimen) {
         boolean needsInvalidate = false;
 
         if (mOrientation == Orientation.VERTICAL) {
@@ -2347,10 +3573,19 @@ public class OrientedViewPager extends ViewGroup {
             float offset;
             if (!first && ii.position != lastPos + 1) {
                 // Create a synthetic item for a missing page.
+                final int missing = ii.position - lastPos - 1;
+                final float gapOffset = lastOffset + lastSize + marginOffset;
                 ii = mTempItem;
-                ii.offset = lastOffset + lastSize + marginOffset;
+                ii.offset = gapOffset;
                 ii.position = lastPos + 1;
-                ii.sizeFactor = mAdapter.getPageWidth(ii.position);
+                ii.sizeFactor = getPageWidth(ii.position);
+                if (missing > MAX_MEASURED_GAP && scrollOffset > gapOffset) {
+                    // Same as getGapSize(), pages of a large gap are all as big as the first one
+                    final int skipped = Math.min(missing - 1,
+                            (int) ((scrollOffset - gapOffset) / (ii.sizeFactor + marginOffset)));
+                    ii.offset += skipped * (ii.sizeFactor + marginOffset);
+                    ii.position += skipped;
+                }
                 i--;
             }
             offset = ii.offset;
@@ -2396,7 +3631,13 @@ public class OrientedViewPager extends ViewGroup {
 
     @Override
     public void draw(Canvas canvas) {
+        final boolean checked = beginAllocationCheck();
+        beginFramePhase(GestureFrameStats.PHASE_DRAW);
         super.draw(canvas);
+        endFramePhase();
+        if (mFrameStatsRecorder != null) {
+            mFrameStatsRecorder.onDraw();
+        }
         boolean needsInvalidate = false;
 
         final int overScrollMode = ViewCompat.getOverScrollMode(this);
@@ -2458,6 +3699,7 @@ public class OrientedViewPager extends ViewGroup {
             // Keep animating
             ViewCompat.postInvalidateOnAnimation(this);
         }
+        endAllocationCheck(checked, "draw");
     }
 
     @Override
@@ -2487,7 +3729,7 @@ public class OrientedViewPager extends ViewGroup {
                         drawAt = (ii.offset + ii.sizeFactor) * height;
                         offset = ii.offset + ii.sizeFactor + marginOffset;
                     } else {
-                        float heightFactor = mAdapter.getPageWidth(pos);
+                        float heightFactor = getPageWidth(pos);
                         drawAt = (offset + heightFactor) * height;
                         offset += heightFactor + marginOffset;
                     }
@@ -2523,7 +3765,7 @@ public class OrientedViewPager extends ViewGroup {
                         drawAt = (ii.offset + ii.sizeFactor) * width;
                         offset = ii.offset + ii.sizeFactor + marginOffset;
                     } else {
-                        float widthFactor = mAdapter.getPageWidth(pos);
+                        float widthFactor = getPageWidth(pos);
                         drawAt = (offset + widthFactor) * width;
                         offset += widthFactor + marginOffset;
                     }
@@ -3204,7 +4446,26 @@ public class OrientedViewPager extends ViewGroup {
         }
     }
 
-    private class PagerObserver extends DataSetObserver {
+    /**
+     * Lets a plain {@link android.support.v4.view.ViewPager.PageTransformer} be driven through
+     * the {@link BatchPageTransformer} path.
+     */
+    static class PageTransformerAdapter implements BatchPageTransformer {
+        private final ViewPager.PageTransformer mTransformer;
+
+        PageTransformerAdapter(ViewPager.PageTransformer transformer) {
+            mTransformer = transformer;
+        }
+
+        @Override
+        public void transformPages(int scroll, View[] pages, float[] positions, int count) {
+            for (int i = 0; i < count; i++) {
+                mTransformer.transformPage(pages[i], positions[i]);
+            }
+        }
+    }
+
+    private class PagerObserver extends DataSetObserver implements RecyclingStackAdapter.ItemObserver {
         @Override
         public void onChanged() {
             dataSetChanged();
@@ -3214,6 +4475,36 @@ public class OrientedViewPager extends ViewGroup {
         public void onInvalidated() {
             dataSetChanged();
         }
+
+        @Override
+        public void onBeginItemUpdates() {
+            beginItemUpdates();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            itemRangeChanged(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            itemRangeInserted(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            itemRangeRemoved(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemMoved(int fromPosition, int toPosition) {
+            itemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onEndItemUpdates() {
+            endItemUpdates();
+        }
     }
 
     /**
@@ -3251,14 +4542,31 @@ public class OrientedViewPager extends ViewGroup {
         boolean needsMeasure;
 
         /**
-         * Adapter position this view is for if !isDecor
+         * true if the page transformer made this view fully transparent. Such a view
+         * is not drawn, and its measure and layout are deferred until it's visible again.
          */
-        int position;
+        boolean culled;
 
         /**
-         * Current child index within the ViewPager that this view occupies
+         * true if a layout pass was skipped for this view while it was culled.
          */
-        int childIndex;
+        boolean needsLayout;
+
+        /**
+         * Position last passed to the page transformer for this view, or NaN if it hasn't
+         * been transformed yet.
+         */
+        float transformPosition = Float.NaN;
+
+        /**
+         * Item last found for this view (see infoForChild), if !isDecor
+         */
+        ItemInfo itemInfo;
+
+        /**
+         * Adapter position this view is for if !isDecor
+         */
+        int position;
 
         public LayoutParams() {
             super(FILL_PARENT, FILL_PARENT);
@@ -3273,18 +4581,6 @@ public class OrientedViewPager extends ViewGroup {
         }
     }
 
-    static class ViewPositionComparator implements Comparator<View> {
-        @Override
-        public int compare(View lhs, View rhs) {
-            final LayoutParams llp = (LayoutParams) lhs.getLayoutParams();
-            final LayoutParams rlp = (LayoutParams) rhs.getLayoutParams();
-            if (llp.isDecor != rlp.isDecor) {
-                return llp.isDecor ? 1 : -1;
-            }
-            return llp.position - rlp.position;
-        }
-    }
-
     // Following classes and the interface are needed for the Maven Central upload script to work properly.
     // They are being introduced here, sort of temporarily (until I find a better solution for this issue).
 
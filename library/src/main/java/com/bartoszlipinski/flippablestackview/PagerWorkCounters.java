@@ -0,0 +1,99 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+/**
+ * Running counts of the work done by an <code>OrientedViewPager</code> (see
+ * {@link OrientedViewPager#getWorkCounters()}). Meant for catching work amplification: e.g.
+ * replay a scripted flip with the fake drag methods and compare the counts before and after a
+ * change.
+ */
+public class PagerWorkCounters {
+
+    int mPopulateCount;
+    int mInstantiateCount;
+    int mDestroyCount;
+    int mPageMeasureCount;
+    int mTransformCount;
+    int mTransformedPageCount;
+
+    PagerWorkCounters() {
+    }
+
+    /**
+     * @return Number of times the pager populated its window of pages.
+     */
+    public int getPopulateCount() {
+        return mPopulateCount;
+    }
+
+    /**
+     * @return Number of calls to the adapter's <code>instantiateItem</code>.
+     */
+    public int getInstantiateCount() {
+        return mInstantiateCount;
+    }
+
+    /**
+     * @return Number of calls to the adapter's <code>destroyItem</code>.
+     */
+    public int getDestroyCount() {
+        return mDestroyCount;
+    }
+
+    /**
+     * @return Number of page measures done by the pager (decor views aren't counted).
+     */
+    public int getPageMeasureCount() {
+        return mPageMeasureCount;
+    }
+
+    /**
+     * @return Number of calls to the page transformer.
+     */
+    public int getTransformCount() {
+        return mTransformCount;
+    }
+
+    /**
+     * @return Number of pages handed to the page transformer, over all its calls.
+     */
+    public int getTransformedPageCount() {
+        return mTransformedPageCount;
+    }
+
+    public void reset() {
+        mPopulateCount = 0;
+        mInstantiateCount = 0;
+        mDestroyCount = 0;
+        mPageMeasureCount = 0;
+        mTransformCount = 0;
+        mTransformedPageCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PagerWorkCounters{"
+                + "populate=" + mPopulateCount
+                + " instantiate=" + mInstantiateCount
+                + " destroy=" + mDestroyCount
+                + " pageMeasure=" + mPageMeasureCount
+                + " transform=" + mTransformCount
+                + " transformedPages=" + mTransformedPageCount
+                + "}";
+    }
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.PagerAdapter;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Base class for adapters that create their pages once and then only rebind them. Pages that
+ * leave the pager are put into its {@link StackViewPool}, and pages that enter it are taken
+ * from the pool (and only created if there's none of the right type).
+ * <p/>
+ * As any page can be rebound, a call to <code>notifyDataSetChanged</code> rebinds all the
+ * pages currently held by the pager (see {@link #getItemPosition(Object)}). Smaller changes can
+ * be reported with the <code>notifyItem...</code> methods (or {@link StackDiff}), which only
+ * touch the affected pages.
+ * <p/>
+ * Pages can also be created in the background (see {@link #setCreationExecutor(Executor)}).
+ */
+public abstract class RecyclingStackAdapter extends PagerAdapter {
+
+    /**
+     * Receives the fine-grained change notifications. Positions are adapter positions, and each
+     * notification refers to the state left by the previous one.
+     */
+    interface ItemObserver {
+        void onBeginItemUpdates();
+
+        void onItemRangeChanged(int positionStart, int itemCount);
+
+        void onItemRangeInserted(int positionStart, int itemCount);
+
+        void onItemRangeRemoved(int positionStart, int itemCount);
+
+        void onItemMoved(int fromPosition, int toPosition);
+
+        void onEndItemUpdates();
+    }
+
+    private final ArrayList<ItemObserver> mItemObservers = new ArrayList<ItemObserver>();
+    private int mBatchDepth;
+    private boolean mBatchChanged;
+
+    private static final int MAX_PREFETCHED_VIEWS = 2;
+    /**
+     * Pages created and bound ahead of time, by adapter position.
+     */
+    private final SparseArray<View> mPrefetchedViews = new SparseArray<View>();
+    private ViewGroup mPrefetchContainer;
+
+    private StackViewPool mFallbackPool;
+
+    private Executor mCreationExecutor;
+    private Handler mMainHandler;
+
+    /**
+     * @return View type of the page at the given position. Pages are only recycled between
+     * positions with the same view type. Default is 0.
+     */
+    public int getItemViewType(int position) {
+        return 0;
+    }
+
+    /**
+     * Creates a new page of the given type. The page must not be added to the parent.
+     * <p/>
+     * With a creation executor set, it's called on the executor's thread, so it must not touch
+     * the view hierarchy (inflating with <code>attachToRoot == false</code> is fine).
+     */
+    public abstract View onCreateView(ViewGroup parent, int viewType);
+
+    /**
+     * Creates the view shown in place of a page while the page is created in the background
+     * (see {@link #setCreationExecutor(Executor)}). It's sized and transformed like the page, so
+     * a plain card background is usually enough. Default is null (nothing is shown).
+     */
+    public View onCreatePlaceholder(ViewGroup parent, int viewType) {
+        return null;
+    }
+
+    /**
+     * Binds the page to the data at the given position. The page may have been bound to
+     * another position before.
+     */
+    public abstract void onBindView(View view, int position);
+
+    /**
+     * Called when a page leaves the pager, before it's put into the pool. Good place to
+     * release resources held by the page.
+     */
+    public void onViewRecycled(View view) {
+    }
+
+    /**
+     * Used to create the pages on the given executor, instead of on the UI thread when they are
+     * needed. A page that isn't ready yet is shown as its placeholder (see
+     * {@link #onCreatePlaceholder(ViewGroup, int)}) and bound as soon as it's created.
+     * <p/>
+     * In this mode every page is wrapped in a <code>FrameLayout</code>, which is the object
+     * passed to {@link #getItemPosition(Object)}. Should be set before the adapter is set on
+     * the pager.
+     *
+     * @param executor Executor to use, or null to create the pages synchronously (default).
+     */
+    public void setCreationExecutor(Executor executor) {
+        mCreationExecutor = executor;
+        if (executor != null && mMainHandler == null) {
+            mMainHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    public Executor getCreationExecutor() {
+        return mCreationExecutor;
+    }
+
+    /**
+     * Used to group several <code>notifyItem...</code> calls, so that the pager is updated once
+     * (when {@link #endBatchedUpdates()} is called). Calls can be nested.
+     */
+    public void beginBatchedUpdates() {
+        if (mBatchDepth++ == 0) {
+            mBatchChanged = false;
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onBeginItemUpdates();
+            }
+        }
+    }
+
+    public void endBatchedUpdates() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException(this.getClass().getSimpleName() + ": endBatchedUpdates() called without beginBatchedUpdates().");
+        }
+        if (--mBatchDepth == 0) {
+            if (mItemObservers.isEmpty()) {
+                if (mBatchChanged) {
+                    notifyDataSetChanged();
+                }
+                return;
+            }
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onEndItemUpdates();
+            }
+        }
+    }
+
+    public void notifyItemChanged(int position) {
+        notifyItemRangeChanged(position, 1);
+    }
+
+    /**
+     * Used to notify that the data of the given items has changed. Pages of these items are
+     * rebound in place (with {@link #onBindView(View, int)}).
+     */
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        if (checkItemObservers()) {
+            beginBatchedUpdates();
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onItemRangeChanged(positionStart, itemCount);
+            }
+            endBatchedUpdates();
+        }
+    }
+
+    public void notifyItemInserted(int position) {
+        notifyItemRangeInserted(position, 1);
+    }
+
+    /**
+     * Used to notify that items were inserted at the given position (the items previously at
+     * this position and after it have moved by <code>itemCount</code>).
+     */
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        if (checkItemObservers()) {
+            beginBatchedUpdates();
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onItemRangeInserted(positionStart, itemCount);
+            }
+            endBatchedUpdates();
+        }
+    }
+
+    public void notifyItemRemoved(int position) {
+        notifyItemRangeRemoved(position, 1);
+    }
+
+    /**
+     * Used to notify that items were removed from the given position. If the current page is
+     * removed, the page under it in the stack becomes the current one.
+     */
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        if (checkItemObservers()) {
+            beginBatchedUpdates();
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onItemRangeRemoved(positionStart, itemCount);
+            }
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Used to notify that the item at <code>fromPosition</code> was moved to
+     * <code>toPosition</code>.
+     */
+    public void notifyItemMoved(int fromPosition, int toPosition) {
+        if (checkItemObservers()) {
+            beginBatchedUpdates();
+            for (int i = mItemObservers.size() - 1; i >= 0; i--) {
+                mItemObservers.get(i).onItemMoved(fromPosition, toPosition);
+            }
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * @return True if there are observers for the fine-grained notifications. If there aren't,
+     * the change is reported with <code>notifyDataSetChanged</code> instead (once per batch).
+     */
+    private boolean checkItemObservers() {
+        releasePrefetchedViews();
+        if (!mItemObservers.isEmpty()) {
+            return true;
+        }
+        if (mBatchDepth > 0) {
+            mBatchChanged = true;
+        } else {
+            notifyDataSetChanged();
+        }
+        return false;
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        releasePrefetchedViews();
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Creates (or takes from the pool) and binds the page for the given position, so that
+     * {@link #instantiateItem(ViewGroup, int)} doesn't have to. The page is measured once as
+     * well, which only warms up its own caches (e.g. text layouts): adding it to the pager
+     * requests a layout of it, so the pager still measures it again.
+     *
+     * @return False if the page was already prefetched.
+     */
+    boolean prefetchItem(ViewGroup container, int position, int widthMeasureSpec, int heightMeasureSpec) {
+        if (mPrefetchedViews.get(position) != null) {
+            return false;
+        }
+        if (mPrefetchedViews.size() >= MAX_PREFETCHED_VIEWS) {
+            releasePrefetchedView(0);
+        }
+        mPrefetchContainer = container;
+        final View view = obtainView(container, position);
+        view.measure(widthMeasureSpec, heightMeasureSpec);
+        mPrefetchedViews.put(position, view);
+        return true;
+    }
+
+    void releasePrefetchedViews() {
+        for (int i = mPrefetchedViews.size() - 1; i >= 0; i--) {
+            releasePrefetchedView(i);
+        }
+    }
+
+    private void releasePrefetchedView(int index) {
+        final View view = mPrefetchedViews.valueAt(index);
+        mPrefetchedViews.removeAt(index);
+        recycleView(mPrefetchContainer, view);
+    }
+
+    void registerItemObserver(ItemObserver observer) {
+        mItemObservers.add(observer);
+    }
+
+    void unregisterItemObserver(ItemObserver observer) {
+        mItemObservers.remove(observer);
+    }
+
+    /**
+     * Rebinds a page that is already in the pager.
+     */
+    void rebindItem(Object object, int position) {
+        bindView((View) object, position);
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        View view = mPrefetchedViews.get(position);
+        if (view != null) {
+            mPrefetchedViews.remove(position);
+        } else {
+            view = obtainView(container, position);
+        }
+        container.addView(view);
+        return view;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        final View view = (View) object;
+        container.removeView(view);
+        recycleView(container, view);
+    }
+
+    private View obtainView(ViewGroup container, int position) {
+        final int viewType = getItemViewType(position);
+        View view = getPool(container).getRecycledView(viewType);
+        if (view == null) {
+            if (mCreationExecutor != null) {
+                view = createPageAsync(container, viewType);
+            } else {
+                view = onCreateView(container, viewType);
+            }
+            view.setTag(R.id.flippable_stack_view_type, viewType);
+        }
+        bindView(view, position);
+        return view;
+    }
+
+    private AsyncPage createPageAsync(final ViewGroup container, final int viewType) {
+        final AsyncPage page = new AsyncPage(container.getContext());
+        final View placeholder = onCreatePlaceholder(container, viewType);
+        if (placeholder != null) {
+            page.setPlaceholder(placeholder);
+        }
+        mCreationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final View content = onCreateView(container, viewType);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        page.setContent(content);
+                        if (page.mPosition >= 0) {
+                            onBindView(content, page.mPosition);
+                        }
+                        if (page.getParent() instanceof OrientedViewPager) {
+                            // Lets the pager drop anything it cached for the placeholder
+                            ((OrientedViewPager) page.getParent()).onItemRebound(page);
+                        }
+                    }
+                });
+            }
+        });
+        return page;
+    }
+
+    private void bindView(View view, int position) {
+        if (view instanceof AsyncPage) {
+            final AsyncPage page = (AsyncPage) view;
+            page.mPosition = position;
+            if (page.mContent != null) {
+                onBindView(page.mContent, position);
+            }
+        } else {
+            onBindView(view, position);
+        }
+    }
+
+    private void recycleView(ViewGroup container, View view) {
+        if (view instanceof AsyncPage) {
+            final AsyncPage page = (AsyncPage) view;
+            page.mPosition = -1;
+            if (page.mContent != null) {
+                onViewRecycled(page.mContent);
+            }
+        } else {
+            onViewRecycled(view);
+        }
+        final Object viewType = view.getTag(R.id.flippable_stack_view_type);
+        if (viewType instanceof Integer) {
+            getPool(container).putRecycledView(view, (Integer) viewType, container);
+        }
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return view == object;
+    }
+
+    /**
+     * Returns {@link #POSITION_NONE}, so that every page is rebound (with a recycled view) when
+     * the data set changes. Override it to keep pages that didn't change.
+     */
+    @Override
+    public int getItemPosition(Object object) {
+        return POSITION_NONE;
+    }
+
+    /**
+     * Page created in the background. Shows its placeholder until the content is ready.
+     */
+    private static class AsyncPage extends FrameLayout {
+        private View mPlaceholder;
+        private View mContent;
+        private int mPosition = -1;
+
+        AsyncPage(Context context) {
+            super(context);
+        }
+
+        void setPlaceholder(View placeholder) {
+            mPlaceholder = placeholder;
+            addView(placeholder, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+        }
+
+        void setContent(View content) {
+            if (mPlaceholder != null) {
+                removeView(mPlaceholder);
+                mPlaceholder = null;
+            }
+            mContent = content;
+            if (content.getLayoutParams() != null) {
+                addView(content);
+            } else {
+                addView(content, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+            }
+        }
+    }
+
+    private StackViewPool getPool(ViewGroup container) {
+        if (container instanceof OrientedViewPager) {
+            return ((OrientedViewPager) container).getViewPool();
+        }
+        if (mFallbackPool == null) {
+            mFallbackPool = new StackViewPool();
+        }
+        return mFallbackPool;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.content.Context;
+import android.view.animation.Interpolator;
+import android.widget.Scroller;
+
+/**
+ * Scroller settling with a critically damped spring. A settle starts from a given velocity
+ * (e.g. the one the pages were released with) and ends once both the distance to the target and
+ * the velocity fall under a threshold. The duration of the scroll is derived from that, rather
+ * than set by the caller.
+ * <p/>
+ * A spring released fast enough towards the target crosses it once. From there it's taken back
+ * by a stiffer, non-oscillating tail, which keeps the overshoot under {@link #MAX_OVERSHOOT}.
+ * Where there's no room past the target (see {@link #setOvershootAllowed(boolean)}) the settle
+ * stops at the target instead.
+ * <p/>
+ * <code>Scroller</code> keeps its position to itself, so the spring is played back through its
+ * interpolator: {@link #computeScrollOffset()} and the getters work as usual.
+ */
+class SpringScroller extends Scroller {
+
+    private static final float DEFAULT_STIFFNESS = 1500f;
+    private static final float DISTANCE_THRESHOLD = 0.5f; // px
+    private static final float VELOCITY_THRESHOLD = 20f; // dp per second
+    private static final float MAX_DURATION = 2f; // s
+    private static final float TIME_STEP = 0.001f; // s
+    private static final float MAX_OVERSHOOT = 16f; // dp
+
+    private final SpringInterpolator mSpring;
+    private final float mVelocityThreshold;
+    private final float mMaxOvershoot;
+    private boolean mOvershootAllowed = true;
+
+    SpringScroller(Context context) {
+        this(context, new SpringInterpolator());
+    }
+
+    private SpringScroller(Context context, SpringInterpolator spring) {
+        super(context, spring);
+        mSpring = spring;
+        final float density = context.getResources().getDisplayMetrics().density;
+        mVelocityThreshold = VELOCITY_THRESHOLD * density;
+        mMaxOvershoot = MAX_OVERSHOOT * density;
+        setStiffness(DEFAULT_STIFFNESS);
+    }
+
+    /**
+     * @param stiffness Stiffness of the spring, higher values settle faster. Takes effect
+     *                  from the next settle.
+     */
+    void setStiffness(float stiffness) {
+        if (stiffness <= 0) {
+            throw new IllegalArgumentException(this.getClass().getSimpleName() + ": Stiffness must be positive.");
+        }
+        mSpring.mNaturalFrequency = (float) Math.sqrt(stiffness);
+    }
+
+    /**
+     * @param allowed False to stop at the target instead of overshooting it, e.g. when there
+     *                are no more pages past it. Takes effect from the next settle.
+     */
+    void setOvershootAllowed(boolean allowed) {
+        mOvershootAllowed = allowed;
+    }
+
+    /**
+     * Starts settling from the given velocity, in pixels per second.
+     */
+    void startSpring(int startX, int startY, int dx, int dy, float velocityX, float velocityY) {
+        final SpringInterpolator spring = mSpring;
+        final float distance = (float) Math.hypot(dx, dy);
+        if (distance == 0) {
+            spring.mDuration = 0;
+            super.startScroll(startX, startY, 0, 0, 0);
+            return;
+        }
+        spring.mDirX = dx / distance;
+        spring.mDirY = dy / distance;
+        spring.mDistance = distance;
+        spring.mInitialVelocity = velocityX * spring.mDirX + velocityY * spring.mDirY;
+        final int duration = Math.max(1, Math.round(computeDuration() * 1000));
+        spring.mDuration = duration / 1000f;
+        super.startScroll(startX, startY, dx, dy, duration);
+    }
+
+    /**
+     * @return Time, in seconds, until the spring comes to rest (or, with no overshoot allowed,
+     * reaches the target).
+     */
+    private float computeDuration() {
+        final SpringInterpolator spring = mSpring;
+        // Lets velocity() follow the spring while the duration is being looked for
+        spring.mDuration = MAX_DURATION;
+        spring.mCrossing = Float.MAX_VALUE;
+        spring.mTailVelocity = 0;
+        final float w = spring.mNaturalFrequency;
+        final float x0 = -spring.mDistance;
+        final float b = spring.mInitialVelocity + w * x0;
+        float start = TIME_STEP;
+        if (b > 0) {
+            // Flung pages cross the target once, at x(t) = 0
+            final float crossing = -x0 / b;
+            if (crossing >= MAX_DURATION) {
+                return MAX_DURATION;
+            }
+            spring.mCrossing = crossing;
+            if (!mOvershootAllowed) {
+                return Math.max(crossing, TIME_STEP);
+            }
+            // x'(crossing) of the approach, the tail starts off with it
+            final float velocity = b * (float) Math.exp(-w * crossing);
+            spring.mTailVelocity = velocity;
+            // The tail x(s) = v * s * e^(-w * s) peaks at v / (e * w)
+            spring.mTailFrequency = Math.max(w, velocity / ((float) Math.E * mMaxOvershoot));
+            start = Math.max(crossing, TIME_STEP);
+        }
+        for (float t = start; t < MAX_DURATION; t += TIME_STEP) {
+            if (Math.abs(spring.displacement(t)) < DISTANCE_THRESHOLD
+                    && Math.abs(spring.velocity(t)) < mVelocityThreshold) {
+                return t;
+            }
+        }
+        return MAX_DURATION;
+    }
+
+    /**
+     * The duration is decided by the spring. A settle in progress keeps its velocity.
+     */
+    @Override
+    public void startScroll(int startX, int startY, int dx, int dy, int duration) {
+        float velocityX = 0;
+        float velocityY = 0;
+        if (!isFinished()) {
+            final float velocity = mSpring.velocity(timePassed() / 1000f);
+            velocityX = velocity * mSpring.mDirX;
+            velocityY = velocity * mSpring.mDirY;
+        }
+        startSpring(startX, startY, dx, dy, velocityX, velocityY);
+    }
+
+    @Override
+    public float getCurrVelocity() {
+        return Math.abs(mSpring.velocity(timePassed() / 1000f));
+    }
+
+    private static class SpringInterpolator implements Interpolator {
+        private float mNaturalFrequency;
+        private float mDirX;
+        private float mDirY;
+        private float mDistance;
+        private float mInitialVelocity;
+        private float mDuration;
+        private float mCrossing;
+        private float mTailVelocity;
+        private float mTailFrequency;
+
+        /**
+         * @return Position relative to the target, along the direction of the scroll.
+         */
+        float displacement(float t) {
+            if (t >= mCrossing) {
+                // x(s) = v * s * e^(-w * s), from the target
+                final float s = t - mCrossing;
+                return mTailVelocity * s * (float) Math.exp(-mTailFrequency * s);
+            }
+            // x(t) = (x0 + (v0 + w * x0) * t) * e^(-w * t)
+            final float w = mNaturalFrequency;
+            final float x0 = -mDistance;
+            return (x0 + (mInitialVelocity + w * x0) * t) * (float) Math.exp(-w * t);
+        }
+
+        float velocity(float t) {
+            if (t >= mDuration) {
+                return 0;
+            }
+            if (t >= mCrossing) {
+                final float s = t - mCrossing;
+                return mTailVelocity * (1 - mTailFrequency * s) * (float) Math.exp(-mTailFrequency * s);
+            }
+            final float w = mNaturalFrequency;
+            final float b = mInitialVelocity - w * mDistance;
+            return (mInitialVelocity - w * b * t) * (float) Math.exp(-w * t);
+        }
+
+        @Override
+        public float getInterpolation(float input) {
+            if (input >= 1) {
+                return 1;
+            }
+            return 1 + displacement(input * mDuration) / mDistance;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import java.util.List;
+
+/**
+ * Reports the difference between two versions of the adapter's data with the fine-grained
+ * notifications of {@link RecyclingStackAdapter}, in a single batch.
+ * <p/>
+ * The difference is found in linear time: the common beginning and end of the lists are
+ * compared item by item (changed items are rebound), a single item moved within the rest is
+ * reported as a move, and anything else in between is reported as removed and inserted.
+ * That covers the usual updates of a stack (cards added to or removed from either end, a card
+ * changed or moved) exactly.
+ */
+public class StackDiff {
+
+    public interface Callback<T> {
+        /**
+         * @return True if both objects represent the same item (e.g. have the same id).
+         */
+        boolean areItemsTheSame(T oldItem, T newItem);
+
+        /**
+         * @return True if the page bound to <code>oldItem</code> doesn't need to be rebound to
+         * show <code>newItem</code>.
+         */
+        boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    private StackDiff() {
+    }
+
+    /**
+     * @param adapter  Adapter to notify. It must already return the new data.
+     * @param oldItems Data previously shown by the adapter.
+     * @param newItems Data the adapter shows now.
+     * @param callback Used to compare the items.
+     */
+    public static <T> void dispatch(RecyclingStackAdapter adapter, List<? extends T> oldItems, List<? extends T> newItems, Callback<T> callback) {
+        final int oldSize = oldItems.size();
+        final int newSize = newItems.size();
+
+        adapter.beginBatchedUpdates();
+        try {
+            // Common beginning
+            int start = 0;
+            while (start < oldSize && start < newSize
+                    && callback.areItemsTheSame(oldItems.get(start), newItems.get(start))) {
+                start++;
+            }
+            // Common end
+            int oldEnd = oldSize;
+            int newEnd = newSize;
+            while (oldEnd > start && newEnd > start
+                    && callback.areItemsTheSame(oldItems.get(oldEnd - 1), newItems.get(newEnd - 1))) {
+                oldEnd--;
+                newEnd--;
+            }
+            dispatchChanged(adapter, oldItems, newItems, 0, 0, start, callback);
+
+            final int oldCount = oldEnd - start;
+            final int newCount = newEnd - start;
+            if (oldCount == newCount && oldCount > 1
+                    && callback.areItemsTheSame(oldItems.get(start), newItems.get(newEnd - 1))
+                    && sameItems(oldItems, start + 1, newItems, start, oldCount - 1, callback)) {
+                // First item moved to the end
+                adapter.notifyItemMoved(start, newEnd - 1);
+                dispatchChanged(adapter, oldItems, newItems, start + 1, start, oldCount - 1, callback);
+                dispatchChanged(adapter, oldItems, newItems, start, newEnd - 1, 1, callback);
+            } else if (oldCount == newCount && oldCount > 1
+                    && callback.areItemsTheSame(oldItems.get(oldEnd - 1), newItems.get(start))
+                    && sameItems(oldItems, start, newItems, start + 1, oldCount - 1, callback)) {
+                // Last item moved to the beginning
+                adapter.notifyItemMoved(oldEnd - 1, start);
+                dispatchChanged(adapter, oldItems, newItems, start, start + 1, oldCount - 1, callback);
+                dispatchChanged(adapter, oldItems, newItems, oldEnd - 1, start, 1, callback);
+            } else {
+                if (oldCount > 0) {
+                    adapter.notifyItemRangeRemoved(start, oldCount);
+                }
+                if (newCount > 0) {
+                    adapter.notifyItemRangeInserted(start, newCount);
+                }
+            }
+
+            // The common end is at its new positions by now
+            dispatchChanged(adapter, oldItems, newItems, oldEnd, newEnd, oldSize - oldEnd, callback);
+        } finally {
+            adapter.endBatchedUpdates();
+        }
+    }
+
+    private static <T> boolean sameItems(List<? extends T> oldItems, int oldStart, List<? extends T> newItems, int newStart, int count, Callback<T> callback) {
+        for (int i = 0; i < count; i++) {
+            if (!callback.areItemsTheSame(oldItems.get(oldStart + i), newItems.get(newStart + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notifies runs of items (known to be the same) that have changed contents.
+     */
+    private static <T> void dispatchChanged(RecyclingStackAdapter adapter, List<? extends T> oldItems, List<? extends T> newItems, int oldStart, int newStart, int count, Callback<T> callback) {
+        int runStart = -1;
+        for (int i = 0; i < count; i++) {
+            final boolean changed = !callback.areContentsTheSame(oldItems.get(oldStart + i), newItems.get(newStart + i));
+            if (changed && runStart < 0) {
+                runStart = i;
+            } else if (!changed && runStart >= 0) {
+                adapter.notifyItemRangeChanged(newStart + runStart, i - runStart);
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0) {
+            adapter.notifyItemRangeChanged(newStart + runStart, count - runStart);
+        }
+    }
+}
@@ -16,19 +16,17 @@
 
 package com.bartoszlipinski.flippablestackview;
 
+import android.graphics.Rect;
 import android.support.v4.view.ViewPager;
 import android.view.View;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
-import android.view.animation.Interpolator;
 
-import com.bartoszlipinski.flippablestackview.utilities.ValueInterpolator;
+import com.bartoszlipinski.flippablestackview.utilities.StackTransformation;
 
 /**
  * Created by Bartosz Lipinski
  * 28.01.15
  */
-public class StackPageTransformer implements ViewPager.PageTransformer {
+public class StackPageTransformer implements ViewPager.PageTransformer, BatchPageTransformer {
 
     public enum Orientation {
         VERTICAL(OrientedViewPager.Orientation.VERTICAL),
@@ -49,25 +47,16 @@ public class StackPageTransformer implements ViewPager.PageTransformer {
         TOP, CENTER, BOTTOM
     }
 
-    private int mNumberOfStacked;
-
-    private float mAlphaFactor;
-    private float mZeroPositionScale;
-    private float mStackedScaleFactor;
-    private float mOverlapFactor;
-    private float mOverlap;
-    private float mAboveStackSpace;
-    private float mBelowStackSpace;
-
-    private boolean mInitialValuesCalculated = false;
+    /**
+     * Number of intervals the flip curves are sampled with when easing tables are used. With 256
+     * intervals the tabulated curves stay within 1e-4 of the exact ones (normalized), which
+     * translates to less than 0.01 degree of the flip rotation.
+     */
+    public static final int EASING_TABLE_INTERVALS = StackTransformation.EASING_TABLE_INTERVALS;
 
     private Orientation mOrientation;
-    private Gravity mGravity;
-
-    private Interpolator mScaleInterpolator;
-    private Interpolator mRotationInterpolator;
 
-    private ValueInterpolator mValueInterpolator;
+    private StackTransformation mTransformation;
 
     /**
      * Used to construct the basic method for visual transformation in <code>FlippableStackView</code>.
@@ -89,127 +78,146 @@ public class StackPageTransformer implements ViewPager.PageTransformer {
     public StackPageTransformer(int numberOfStacked, Orientation orientation, float currentPageScale, float topStackedScale, float overlapFactor, Gravity gravity) {
         validateValues(currentPageScale, topStackedScale, overlapFactor);
 
-        mNumberOfStacked = numberOfStacked;
-        mAlphaFactor = 1.0f / (mNumberOfStacked + 1);
-        mZeroPositionScale = currentPageScale;
-        mStackedScaleFactor = (currentPageScale - topStackedScale) / mNumberOfStacked;
-        mOverlapFactor = overlapFactor;
         mOrientation = orientation;
-        mGravity = gravity;
+        mTransformation = new StackTransformation(numberOfStacked, orientation == Orientation.VERTICAL,
+                currentPageScale, topStackedScale, overlapFactor, getGravityBias(gravity));
+    }
+
+    /**
+     * Used to construct the basic method for visual transformation in <code>FlippableStackView</code>.
+     *
+     * @param numberOfStacked  Number of pages stacked under the current page.
+     * @param orientation      Orientation of the stack.
+     * @param currentPageScale Scale of the current page. Must be a value from (0, 1].
+     * @param topStackedScale  Scale of the top stacked page. Must be a value from
+     *                         (0, <code>currentPageScale</code>].
+     * @param overlapFactor    Defines the usage of available space for the overlapping by stacked
+     *                         pages. Must be a value from [0, 1].
+     * @param gravity          Specifies the alignment of the stack (vertically) withing <code>View</code>
+     *                         bounds.
+     * @param useEasingTables  If true, the flip curves are sampled once into lookup tables
+     *                         (see {@link #EASING_TABLE_INTERVALS}) instead of being evaluated
+     *                         on every frame.
+     */
+    public StackPageTransformer(int numberOfStacked, Orientation orientation, float currentPageScale, float topStackedScale, float overlapFactor, Gravity gravity, boolean useEasingTables) {
+        this(numberOfStacked, orientation, currentPageScale, topStackedScale, overlapFactor, gravity);
+        setUseEasingTables(useEasingTables);
+    }
+
+    /**
+     * Switches between evaluating the flip curves on every frame and reading them from lookup
+     * tables sampled once (see {@link #EASING_TABLE_INTERVALS} for the precision).
+     *
+     * @param useEasingTables True to use the lookup tables.
+     */
+    public void setUseEasingTables(boolean useEasingTables) {
+        mTransformation.setUseEasingTables(useEasingTables);
+    }
 
-        mScaleInterpolator = new DecelerateInterpolator(1.3f);
-        mRotationInterpolator = new AccelerateInterpolator(0.6f);
-        mValueInterpolator = new ValueInterpolator(0, 1, 0, mZeroPositionScale);
+    public boolean isUsingEasingTables() {
+        return mTransformation.isUsingEasingTables();
+    }
+
+    /**
+     * @return Number of pages before the current one that can be visible (see
+     * {@link StackTransformation#getVisiblePagesBefore()}).
+     */
+    public int getVisiblePagesBefore() {
+        return mTransformation.getVisiblePagesBefore();
+    }
+
+    /**
+     * @return Number of pages after the current one that can be visible (see
+     * {@link StackTransformation#getVisiblePagesAfter()}).
+     */
+    public int getVisiblePagesAfter() {
+        return mTransformation.getVisiblePagesAfter();
     }
 
     @Override
     public void transformPage(View view, float position) {
+        mTransformation.transform(getPageState(view), view.getWidth(), view.getHeight(), position);
+    }
 
-        int dimen = 0;
-        switch (mOrientation) {
-            case VERTICAL:
-                dimen = view.getHeight();
-                break;
-            case HORIZONTAL:
-                dimen = view.getWidth();
-                break;
+    @Override
+    public void transformPages(int scroll, View[] pages, float[] positions, int count) {
+        final StackTransformation transformation = mTransformation;
+        // The pages of a stack are normally all of the same size, so this prepares once a frame
+        int preparedDimen = -1;
+        for (int i = 0; i < count; i++) {
+            final View view = pages[i];
+            final int dimen = getDimen(view);
+            if (dimen != preparedDimen) {
+                transformation.prepare(dimen);
+                preparedDimen = dimen;
+            }
+            transformation.transformPrepared(getPageState(view), view.getWidth(), view.getHeight(), positions[i]);
         }
+    }
 
-        if (!mInitialValuesCalculated) {
-            mInitialValuesCalculated = true;
-            calculateInitialValues(dimen);
+    /**
+     * Computes the part of a stacked page that is not covered by the page stacked directly above
+     * it, i.e. the sliver of <code>mOverlap</code> pixels visible at the edge of the stack.
+     * The bounds are in the coordinates of the page's parent (the ones used while drawing it).
+     *
+     * @param view      Transformed page.
+     * @param position  Position the page was last transformed with.
+     * @param outBounds Receives the uncovered bounds.
+     * @return true if the page is partially covered and <code>outBounds</code> was set, false
+     * if the whole page may be visible (the current page, the flipping one, or a page right
+     * under the flipping one).
+     */
+    public boolean getUncoveredBounds(View view, float position, Rect outBounds) {
+        // The page above is only guaranteed to cover this one when it's stacked as well.
+        final int numberOfStacked = mTransformation.getNumberOfStacked();
+        if (!(position <= -1) || position < -numberOfStacked - 1) {
+            return false;
         }
-
+        final int dimen = getDimen(view);
+        mTransformation.prepare(dimen);
+        final float overlap = mTransformation.getOverlap();
+        // Visual start of a stacked page, relative to the start of the visible area, is
+        // aboveStackSpace + (numberOfStacked + position) * overlap (see StackTransformation).
+        final float visibleStart = mTransformation.getAboveStackSpace() + ((numberOfStacked + position) * overlap) - (position * dimen);
         switch (mOrientation) {
             case VERTICAL:
-                view.setRotationX(0);
-                view.setPivotY(dimen / 2f);
-                view.setPivotX(view.getWidth() / 2f);
+                final float top = view.getTop() + visibleStart;
+                outBounds.set(view.getLeft(), (int) Math.floor(top), view.getRight(), (int) Math.ceil(top + overlap));
                 break;
             case HORIZONTAL:
-                view.setRotationY(0);
-                view.setPivotX(dimen / 2f);
-                view.setPivotY(view.getHeight() / 2f);
+                final float left = view.getLeft() + visibleStart;
+                outBounds.set((int) Math.floor(left), view.getTop(), (int) Math.ceil(left + overlap), view.getBottom());
                 break;
         }
-
-        if (position < -mNumberOfStacked - 1) {
-            view.setAlpha(0f);
-        } else if (position <= 0) {
-            float scale = mZeroPositionScale + (position * mStackedScaleFactor);
-            float baseTranslation = (-position * dimen);
-            float shiftTranslation = calculateShiftForScale(position, scale, dimen);
-            view.setScaleX(scale);
-            view.setScaleY(scale);
-            view.setAlpha(1.0f + (position * mAlphaFactor));
-            switch (mOrientation) {
-                case VERTICAL:
-                    view.setTranslationY(baseTranslation + shiftTranslation);
-                    break;
-                case HORIZONTAL:
-                    view.setTranslationX(baseTranslation + shiftTranslation);
-                    break;
-            }
-        } else if (position <= 1) {
-            float baseTranslation = position * dimen;
-            float scale = mZeroPositionScale - mValueInterpolator.map(mScaleInterpolator.getInterpolation(position));
-            scale = (scale < 0) ? 0f : scale;
-            float shiftTranslation = (1.0f - position) * mOverlap;
-            float rotation = -mRotationInterpolator.getInterpolation(position) * 90;
-            rotation = (rotation < -90) ? -90 : rotation;
-            float alpha = 1.0f - position;
-            alpha = (alpha < 0) ? 0f : alpha;
-            view.setAlpha(alpha);
-            switch (mOrientation) {
-                case VERTICAL:
-                    view.setPivotY(dimen);
-                    view.setRotationX(rotation);
-                    view.setScaleX(mZeroPositionScale);
-                    view.setScaleY(scale);
-                    view.setTranslationY(-baseTranslation - mBelowStackSpace - shiftTranslation);
-                    break;
-                case HORIZONTAL:
-                    view.setPivotX(dimen);
-                    view.setRotationY(-rotation);
-                    view.setScaleY(mZeroPositionScale);
-                    view.setScaleX(scale);
-                    view.setTranslationX(-baseTranslation - mBelowStackSpace - shiftTranslation);
-                    break;
-            }
-        } else if (position > 1) {
-            view.setAlpha(0f);
-        }
+        return true;
     }
 
-    private void calculateInitialValues(int dimen) {
-        float scaledDimen = mZeroPositionScale * dimen;
-
-        float overlapBase = (dimen - scaledDimen) / (mNumberOfStacked + 1);
-        mOverlap = overlapBase * mOverlapFactor;
+    private int getDimen(View view) {
+        return (mOrientation == Orientation.VERTICAL) ? view.getHeight() : view.getWidth();
+    }
 
-        float availableSpaceUnit = 0.5f * dimen * (1 - mOverlapFactor) * (1 - mZeroPositionScale);
-        switch (mGravity) {
+    private PageState getPageState(View view) {
+        final Object tag = view.getTag(R.id.flippable_stack_page_state);
+        if (tag instanceof PageState && ((PageState) tag).mOwner == this) {
+            return (PageState) tag;
+        }
+        final PageState state = new PageState(this, view);
+        view.setTag(R.id.flippable_stack_page_state, state);
+        return state;
+    }
 
+    private static float getGravityBias(Gravity gravity) {
+        switch (gravity) {
             case TOP:
-                mAboveStackSpace = 0;
-                mBelowStackSpace = 2 * availableSpaceUnit;
-                break;
-            case CENTER:
-                mAboveStackSpace = availableSpaceUnit;
-                mBelowStackSpace = availableSpaceUnit;
-                break;
+                return 0f;
             case BOTTOM:
-                mAboveStackSpace = 2 * availableSpaceUnit;
-                mBelowStackSpace = 0;
-                break;
+                return 1f;
+            case CENTER:
+            default:
+                return 0.5f;
         }
     }
 
-    private float calculateShiftForScale(float position, float scale, int dimen) {
-        //difference between centers
-        return mAboveStackSpace + ((mNumberOfStacked + position) * mOverlap) + (dimen * 0.5f * (scale - 1));
-    }
-
     private void validateValues(float currentPageScale, float topStackedScale, float overlapFactor) {
         if (currentPageScale <= 0 || currentPageScale > 1) {
             throw new IllegalArgumentException(this.getClass().getSimpleName() + ": Current page scale not correctly defined. " +
@@ -227,4 +235,93 @@ public class StackPageTransformer implements ViewPager.PageTransformer {
         }
     }
 
+    /**
+     * Values last applied to a page by a given transformer. Every property is written to the
+     * <code>View</code> only when it differs from the recorded one, as each write invalidates
+     * the page's display list properties.
+     */
+    private static class PageState implements StackTransformation.Page {
+        private final StackPageTransformer mOwner;
+        private final View mView;
+        private final boolean mVertical;
+
+        private float mAlpha = Float.NaN;
+        private float mScaleX = Float.NaN;
+        private float mScaleY = Float.NaN;
+        private float mPivotX = Float.NaN;
+        private float mPivotY = Float.NaN;
+        private float mRotation = Float.NaN;
+        private float mTranslation = Float.NaN;
+
+        PageState(StackPageTransformer owner, View view) {
+            mOwner = owner;
+            mView = view;
+            mVertical = owner.mOrientation == Orientation.VERTICAL;
+        }
+
+        @Override
+        public void setAlpha(float alpha) {
+            if (alpha != mAlpha) {
+                mAlpha = alpha;
+                mView.setAlpha(alpha);
+            }
+        }
+
+        @Override
+        public void setScaleX(float scaleX) {
+            if (scaleX != mScaleX) {
+                mScaleX = scaleX;
+                mView.setScaleX(scaleX);
+            }
+        }
+
+        @Override
+        public void setScaleY(float scaleY) {
+            if (scaleY != mScaleY) {
+                mScaleY = scaleY;
+                mView.setScaleY(scaleY);
+            }
+        }
+
+        @Override
+        public void setPivotX(float pivotX) {
+            if (pivotX != mPivotX) {
+                mPivotX = pivotX;
+                mView.setPivotX(pivotX);
+            }
+        }
+
+        @Override
+        public void setPivotY(float pivotY) {
+            if (pivotY != mPivotY) {
+                mPivotY = pivotY;
+                mView.setPivotY(pivotY);
+            }
+        }
+
+        @Override
+        public void setRotation(float rotation) {
+            if (rotation != mRotation) {
+                mRotation = rotation;
+                if (mVertical) {
+                    mView.setRotationX(rotation);
+                } else {
+                    mView.setRotationY(rotation);
+                }
+            }
+        }
+
+        @Override
+        public void setTranslation(float translation) {
+            if (translation != mTranslation) {
+                mTranslation = translation;
+                if (mVertical) {
+                    mView.setTranslationY(translation);
+                } else {
+                    mView.setTranslationX(translation);
+                }
+            }
+        }
+    }
+
 }
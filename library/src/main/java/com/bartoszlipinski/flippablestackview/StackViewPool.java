@@ -0,0 +1,128 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of detached pages, grouped by view type, that a {@link RecyclingStackAdapter} takes its
+ * pages from before creating new ones. Every <code>OrientedViewPager</code> has its own pool,
+ * which can also be shared between several of them (see
+ * {@link OrientedViewPager#setViewPool(StackViewPool)}).
+ */
+public class StackViewPool {
+    private static final int DEFAULT_MAX_RECYCLED_VIEWS = 5;
+
+    private final SparseArray<ArrayList<View>> mScrap = new SparseArray<ArrayList<View>>();
+    // Pager that put each of the scrap views into the pool (null if put by anyone else)
+    private final SparseArray<ArrayList<Object>> mScrapOwners = new SparseArray<ArrayList<Object>>();
+    private final SparseIntArray mMaxRecycledViews = new SparseIntArray();
+    private int mDefaultMaxRecycledViews = DEFAULT_MAX_RECYCLED_VIEWS;
+
+    /**
+     * Used to set how many detached pages of the given type are kept.
+     *
+     * @param viewType View type of the pages.
+     * @param max      Maximum number of pages kept.
+     */
+    public void setMaxRecycledViews(int viewType, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(this.getClass().getSimpleName() + ": Maximum number of recycled views can't be negative.");
+        }
+        mMaxRecycledViews.put(viewType, max);
+        final ArrayList<View> scrap = mScrap.get(viewType);
+        if (scrap != null) {
+            final ArrayList<Object> owners = mScrapOwners.get(viewType);
+            while (scrap.size() > max) {
+                scrap.remove(scrap.size() - 1);
+                owners.remove(owners.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Makes sure that at least the given number of detached pages is kept for every view type
+     * without an explicit maximum. The pager uses it to keep a whole window of pages.
+     */
+    void ensureDefaultMaxRecycledViews(int max) {
+        mDefaultMaxRecycledViews = Math.max(mDefaultMaxRecycledViews, max);
+    }
+
+    /**
+     * @return A detached page of the given type, or null if there is none.
+     */
+    public View getRecycledView(int viewType) {
+        final ArrayList<View> scrap = mScrap.get(viewType);
+        if (scrap == null || scrap.isEmpty()) {
+            return null;
+        }
+        final ArrayList<Object> owners = mScrapOwners.get(viewType);
+        owners.remove(owners.size() - 1);
+        return scrap.remove(scrap.size() - 1);
+    }
+
+    /**
+     * Puts a detached page into the pool (unless there's enough pages of its type already).
+     */
+    public void putRecycledView(View view, int viewType) {
+        putRecycledView(view, viewType, null);
+    }
+
+    /**
+     * @param owner Pager the page was detached from, see {@link #clear(Object)}.
+     */
+    void putRecycledView(View view, int viewType, Object owner) {
+        ArrayList<View> scrap = mScrap.get(viewType);
+        if (scrap == null) {
+            scrap = new ArrayList<View>();
+            mScrap.put(viewType, scrap);
+            mScrapOwners.put(viewType, new ArrayList<Object>());
+        }
+        if (scrap.size() < mMaxRecycledViews.get(viewType, mDefaultMaxRecycledViews)) {
+            scrap.add(view);
+            mScrapOwners.get(viewType).add(owner);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mScrap.size(); i++) {
+            mScrap.valueAt(i).clear();
+            mScrapOwners.valueAt(i).clear();
+        }
+    }
+
+    /**
+     * Removes only the pages put into the pool by the given pager, leaving the ones of the other
+     * pagers sharing the pool.
+     */
+    void clear(Object owner) {
+        for (int i = 0; i < mScrap.size(); i++) {
+            final ArrayList<View> scrap = mScrap.valueAt(i);
+            final ArrayList<Object> owners = mScrapOwners.valueAt(i);
+            for (int j = scrap.size() - 1; j >= 0; j--) {
+                if (owners.get(j) == owner) {
+                    scrap.remove(j);
+                    owners.remove(j);
+                }
+            }
+        }
+    }
+}
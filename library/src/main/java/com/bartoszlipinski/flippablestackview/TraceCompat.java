@@ -0,0 +1,153 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * Trace sections and counters shown in systrace/Perfetto captures of the application.
+ * <p/>
+ * Sections need API 18. Counters use the public <code>Trace.isEnabled()</code> and
+ * <code>Trace.setCounter()</code> as of API 29, and the hidden <code>Trace</code> methods
+ * before that. Both are looked up once (the library compiles against an older SDK), counters
+ * are skipped wherever they can't be found, and are only emitted while the application is
+ * actually being traced. Whether it is, is checked at most once a frame.
+ */
+final class TraceCompat {
+    private static final String TAG = "TraceCompat";
+
+    static final String SECTION_POPULATE = "OVP:populate";
+    static final String SECTION_DATA_SET_CHANGED = "OVP:dataSetChanged";
+    static final String SECTION_MEASURE = "OVP:onMeasure";
+    static final String SECTION_LAYOUT = "OVP:onLayout";
+    static final String SECTION_PAGE_SCROLLED = "OVP:onPageScrolled";
+    static final String SECTION_INSTANTIATE_ITEM = "OVP:instantiateItem";
+    static final String SECTION_DESTROY_ITEM = "OVP:destroyItem";
+
+    static final String COUNTER_LIVE_PAGES = "OVP:livePages";
+    static final String COUNTER_WINDOW_SIZE = "OVP:windowSize";
+    static final String COUNTER_SCROLL_STATE = "OVP:scrollState";
+
+    private static final long ENABLED_CHECK_INTERVAL = 16; // ms
+
+    private static boolean sPublicCounters;
+    private static long sTraceTagApp;
+    private static Method sIsEnabledMethod;
+    // Reused so that checking the tag doesn't allocate
+    private static Object[] sIsEnabledArgs;
+    private static Method sSetCounterMethod;
+
+    private static boolean sEnabled;
+    private static long sEnabledCheckTime = Long.MIN_VALUE;
+
+    static {
+        if (Build.VERSION.SDK_INT >= 29) {
+            try {
+                sIsEnabledMethod = Trace.class.getMethod("isEnabled");
+                sIsEnabledArgs = new Object[0];
+                sSetCounterMethod = Trace.class.getMethod("setCounter", String.class, long.class);
+                sPublicCounters = true;
+            } catch (Exception e) {
+                Log.i(TAG, "Trace counters are not available", e);
+                disableCounters();
+            }
+        } else if (Build.VERSION.SDK_INT >= 18) {
+            try {
+                sTraceTagApp = Trace.class.getField("TRACE_TAG_APP").getLong(null);
+                sIsEnabledMethod = Trace.class.getMethod("isTagEnabled", long.class);
+                sIsEnabledArgs = new Object[]{sTraceTagApp};
+                sSetCounterMethod = Trace.class.getMethod("traceCounter", long.class, String.class, int.class);
+            } catch (Exception e) {
+                Log.i(TAG, "Trace counters are not available", e);
+                disableCounters();
+            }
+        }
+    }
+
+    private TraceCompat() {
+    }
+
+    /**
+     * Must be matched by {@link #endSection()} on the same thread.
+     */
+    @TargetApi(18)
+    static void beginSection(String sectionName) {
+        if (Build.VERSION.SDK_INT >= 18) {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    @TargetApi(18)
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= 18) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @return True if counters can be set. May lag behind the start and the end of a capture
+     * by up to a frame.
+     */
+    static boolean isEnabled() {
+        if (sIsEnabledMethod == null) {
+            return false;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (now - sEnabledCheckTime < ENABLED_CHECK_INTERVAL) {
+            return sEnabled;
+        }
+        sEnabledCheckTime = now;
+        try {
+            sEnabled = (Boolean) sIsEnabledMethod.invoke(null, sIsEnabledArgs);
+        } catch (Exception e) {
+            Log.i(TAG, "Unable to check whether tracing is enabled, trace counters are disabled", e);
+            disableCounters();
+        }
+        return sEnabled;
+    }
+
+    /**
+     * Should only be called once {@link #isEnabled()} returned true.
+     */
+    static void setCounter(String counterName, int counterValue) {
+        if (sSetCounterMethod == null) {
+            return;
+        }
+        try {
+            if (sPublicCounters) {
+                sSetCounterMethod.invoke(null, counterName, (long) counterValue);
+            } else {
+                sSetCounterMethod.invoke(null, sTraceTagApp, counterName, counterValue);
+            }
+        } catch (Exception e) {
+            Log.i(TAG, "Unable to set trace counter " + counterName + ", trace counters are disabled", e);
+            disableCounters();
+        }
+    }
+
+    private static void disableCounters() {
+        sIsEnabledMethod = null;
+        sSetCounterMethod = null;
+        sEnabled = false;
+    }
+}
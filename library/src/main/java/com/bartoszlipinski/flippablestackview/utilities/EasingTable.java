@@ -0,0 +1,57 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview.utilities;
+
+/**
+ * Fixed-size lookup table for a curve defined on [0, 1]. Values between the samples are
+ * obtained with linear interpolation, inputs outside of [0, 1] are clamped.
+ */
+public class EasingTable {
+
+    private final float[] mValues;
+    private final int mLastIndex;
+
+    /**
+     * @param values Curve values sampled at evenly spaced inputs, where <code>values[0]</code>
+     *               is the value for input 0 and <code>values[values.length - 1]</code> is the
+     *               value for input 1. Must contain at least two samples.
+     */
+    public EasingTable(float[] values) {
+        if (values == null || values.length < 2) {
+            throw new IllegalArgumentException(this.getClass().getSimpleName() + ": At least two samples are required.");
+        }
+        mValues = values;
+        mLastIndex = values.length - 1;
+    }
+
+    public float get(float input) {
+        if (input <= 0) {
+            return mValues[0];
+        }
+        if (input >= 1) {
+            return mValues[mLastIndex];
+        }
+        final float scaled = input * mLastIndex;
+        final int index = (int) scaled;
+        if (index >= mLastIndex) {
+            return mValues[mLastIndex];
+        }
+        final float fraction = scaled - index;
+        return mValues[index] + fraction * (mValues[index + 1] - mValues[index]);
+    }
+
+}
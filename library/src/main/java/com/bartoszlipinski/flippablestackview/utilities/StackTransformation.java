@@ -0,0 +1,276 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview.utilities;
+
+/**
+ * Geometry of the stack and the properties of a page at a given position, independent of
+ * Android (so that it can also run outside of a device, e.g. in benchmarks). Used by
+ * <code>StackPageTransformer</code>.
+ */
+public class StackTransformation {
+
+    /**
+     * Receives the properties computed for a page.
+     */
+    public interface Page {
+        public void setAlpha(float alpha);
+
+        public void setScaleX(float scaleX);
+
+        public void setScaleY(float scaleY);
+
+        public void setPivotX(float pivotX);
+
+        public void setPivotY(float pivotY);
+
+        /**
+         * @param rotation Rotation around the axis perpendicular to the orientation of the
+         *                 stack (i.e. <code>rotationX</code> for a vertical stack).
+         */
+        public void setRotation(float rotation);
+
+        /**
+         * @param translation Translation along the orientation of the stack.
+         */
+        public void setTranslation(float translation);
+    }
+
+    /**
+     * Number of intervals the flip curves are sampled with when easing tables are used. With 256
+     * intervals the tabulated curves stay within 1e-4 of the exact ones (normalized), which
+     * translates to less than 0.01 degree of the flip rotation.
+     */
+    public static final int EASING_TABLE_INTERVALS = 256;
+
+    // Same curves as DecelerateInterpolator(1.3f) and AccelerateInterpolator(0.6f)
+    private static final float SCALE_CURVE_EXPONENT = 2 * 1.3f;
+    private static final float ROTATION_CURVE_EXPONENT = 2 * 0.6f;
+
+    private final int mNumberOfStacked;
+    private final boolean mVertical;
+
+    private final float mAlphaFactor;
+    private final float mZeroPositionScale;
+    private final float mStackedScaleFactor;
+    private final float mOverlapFactor;
+    private final float mGravityBias;
+
+    private final ValueInterpolator mValueInterpolator;
+
+    private EasingTable mScaleTable;
+    private EasingTable mRotationTable;
+
+    private float mOverlap;
+    private float mAboveStackSpace;
+    private float mBelowStackSpace;
+
+    // Values shared by all the pages of a frame, derived from the page dimension.
+    private int mDimen = -1;
+    private float mHalfDimen;
+    private float mShiftBase;
+    private float mFlipTranslationBase;
+    private float mFlipTranslationSlope;
+
+    /**
+     * @param numberOfStacked  Number of pages stacked under the current page.
+     * @param vertical         True for a vertical stack.
+     * @param currentPageScale Scale of the current page.
+     * @param topStackedScale  Scale of the top stacked page.
+     * @param overlapFactor    Usage of available space for the overlapping by stacked pages.
+     * @param gravityBias      Part of the space left after overlapping that is put above (or
+     *                         left of) the stack: 0 for top, 0.5 for center, 1 for bottom
+     *                         alignment.
+     */
+    public StackTransformation(int numberOfStacked, boolean vertical, float currentPageScale, float topStackedScale, float overlapFactor, float gravityBias) {
+        mNumberOfStacked = numberOfStacked;
+        mVertical = vertical;
+        mAlphaFactor = 1.0f / (mNumberOfStacked + 1);
+        mZeroPositionScale = currentPageScale;
+        mStackedScaleFactor = (currentPageScale - topStackedScale) / mNumberOfStacked;
+        mOverlapFactor = overlapFactor;
+        mGravityBias = gravityBias;
+        mValueInterpolator = new ValueInterpolator(0, 1, 0, mZeroPositionScale);
+    }
+
+    public void setUseEasingTables(boolean useEasingTables) {
+        if (!useEasingTables) {
+            mScaleTable = null;
+            mRotationTable = null;
+        } else if (mScaleTable == null) {
+            final float[] scaleValues = new float[EASING_TABLE_INTERVALS + 1];
+            final float[] rotationValues = new float[EASING_TABLE_INTERVALS + 1];
+            for (int i = 0; i <= EASING_TABLE_INTERVALS; i++) {
+                final float position = (float) i / EASING_TABLE_INTERVALS;
+                scaleValues[i] = calculateFlipScale(position);
+                rotationValues[i] = calculateFlipRotation(position);
+            }
+            mScaleTable = new EasingTable(scaleValues);
+            mRotationTable = new EasingTable(rotationValues);
+        }
+    }
+
+    public boolean isUsingEasingTables() {
+        return mScaleTable != null;
+    }
+
+    public int getNumberOfStacked() {
+        return mNumberOfStacked;
+    }
+
+    /**
+     * Number of pages before the current one that can be visible, including the page that
+     * fades in at the bottom of the stack while the stack is moving.
+     */
+    public int getVisiblePagesBefore() {
+        return mNumberOfStacked + 1;
+    }
+
+    /**
+     * Number of pages after the current one that can be visible (only the page being flipped).
+     */
+    public int getVisiblePagesAfter() {
+        return 1;
+    }
+
+    /**
+     * Derives the values shared by all the pages of the given dimension (along the orientation
+     * of the stack). Cheap to call when the dimension didn't change.
+     */
+    public void prepare(int dimen) {
+        if (dimen == mDimen) {
+            return;
+        }
+        mDimen = dimen;
+        calculateInitialValues(dimen);
+        mHalfDimen = dimen * 0.5f;
+        mShiftBase = mAboveStackSpace + (mNumberOfStacked * mOverlap) - mHalfDimen;
+        mFlipTranslationBase = -mBelowStackSpace - mOverlap;
+        mFlipTranslationSlope = dimen - mOverlap;
+    }
+
+    /**
+     * Space (in pixels) by which every stacked page sticks out from under the page above it.
+     * Valid after {@link #prepare(int)}.
+     */
+    public float getOverlap() {
+        return mOverlap;
+    }
+
+    /**
+     * Space (in pixels) between the start of the visible area and the stack. Valid after
+     * {@link #prepare(int)}.
+     */
+    public float getAboveStackSpace() {
+        return mAboveStackSpace;
+    }
+
+    /**
+     * Computes the properties of a page at the given position.
+     *
+     * @param page     Receives the properties.
+     * @param width    Width of the page.
+     * @param height   Height of the page.
+     * @param position Position of the page relative to the current one.
+     */
+    public void transform(Page page, int width, int height, float position) {
+        prepare(mVertical ? height : width);
+        transformPrepared(page, width, height, position);
+    }
+
+    /**
+     * Same as {@link #transform(Page, int, int, float)}, for a page whose dimension (along the
+     * orientation of the stack) the transformation was last prepared for with
+     * {@link #prepare(int)}. Lets a caller transforming many pages of the same size derive the
+     * shared values once.
+     */
+    public void transformPrepared(Page page, int width, int height, float position) {
+        final int dimen = mDimen;
+        final boolean flipping = position > 0 && position <= 1;
+
+        if (mVertical) {
+            page.setPivotY(flipping ? dimen : mHalfDimen);
+            page.setPivotX(width / 2f);
+        } else {
+            page.setPivotX(flipping ? dimen : mHalfDimen);
+            page.setPivotY(height / 2f);
+        }
+        if (!flipping) {
+            page.setRotation(0);
+        }
+
+        if (position < -mNumberOfStacked - 1) {
+            page.setAlpha(0f);
+        } else if (position <= 0) {
+            float scale = mZeroPositionScale + (position * mStackedScaleFactor);
+            float baseTranslation = (-position * dimen);
+            float shiftTranslation = calculateShiftForScale(position, scale);
+            page.setScaleX(scale);
+            page.setScaleY(scale);
+            page.setAlpha(1.0f + (position * mAlphaFactor));
+            page.setTranslation(baseTranslation + shiftTranslation);
+        } else if (flipping) {
+            float scale = (mScaleTable != null) ? mScaleTable.get(position) : calculateFlipScale(position);
+            float rotation = (mRotationTable != null) ? mRotationTable.get(position) : calculateFlipRotation(position);
+            float alpha = 1.0f - position;
+            alpha = (alpha < 0) ? 0f : alpha;
+            page.setAlpha(alpha);
+            if (mVertical) {
+                page.setRotation(rotation);
+                page.setScaleX(mZeroPositionScale);
+                page.setScaleY(scale);
+            } else {
+                page.setRotation(-rotation);
+                page.setScaleY(mZeroPositionScale);
+                page.setScaleX(scale);
+            }
+            // -(position * dimen) - mBelowStackSpace - (1 - position) * mOverlap
+            page.setTranslation(mFlipTranslationBase - position * mFlipTranslationSlope);
+        } else if (position > 1) {
+            page.setAlpha(0f);
+        }
+    }
+
+    /**
+     * Difference between the centers of a stacked page and the visible area. Valid after
+     * {@link #prepare(int)}.
+     */
+    public float calculateShiftForScale(float position, float scale) {
+        return mShiftBase + (position * mOverlap) + (mHalfDimen * scale);
+    }
+
+    public float calculateFlipScale(float position) {
+        float scale = mZeroPositionScale - mValueInterpolator.map((float) (1.0f - Math.pow((1.0f - position), SCALE_CURVE_EXPONENT)));
+        return (scale < 0) ? 0f : scale;
+    }
+
+    public float calculateFlipRotation(float position) {
+        float rotation = -((float) Math.pow(position, ROTATION_CURVE_EXPONENT)) * 90;
+        return (rotation < -90) ? -90 : rotation;
+    }
+
+    private void calculateInitialValues(int dimen) {
+        float scaledDimen = mZeroPositionScale * dimen;
+
+        float overlapBase = (dimen - scaledDimen) / (mNumberOfStacked + 1);
+        mOverlap = overlapBase * mOverlapFactor;
+
+        float availableSpace = dimen * (1 - mOverlapFactor) * (1 - mZeroPositionScale);
+        mAboveStackSpace = availableSpace * mGravityBias;
+        mBelowStackSpace = availableSpace * (1 - mGravityBias);
+    }
+
+}
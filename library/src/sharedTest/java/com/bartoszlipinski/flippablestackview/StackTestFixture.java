@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.support.v4.view.PagerAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * Stack, pages and scripted flips shared by the local and the instrumentation tests.
+ */
+final class StackTestFixture {
+
+    static final int PAGE_COUNT = 30;
+    static final int START_ITEM = 15;
+    static final int WIDTH = 480;
+    static final int HEIGHT = 800;
+    static final int FRAME_DURATION = 16; // ms
+    static final int DRAG_FRAMES = 10;
+    /**
+     * Fraction of a page dragged by a flip, far enough past the middle of the page to flip it
+     * regardless of the velocity.
+     */
+    static final float DRAG_DISTANCE = 0.7f;
+
+    private StackTestFixture() {
+    }
+
+    /**
+     * @return Offset to pass to {@link OrientedViewPager#fakeDragBy(float)} on each of the
+     * {@link #DRAG_FRAMES} frames of a flip to the next page.
+     */
+    static float getDragStep(int pageSize) {
+        return -DRAG_DISTANCE * pageSize / DRAG_FRAMES;
+    }
+
+    /**
+     * Measures and lays the stack out at {@link #WIDTH} x {@link #HEIGHT}, for tests without
+     * a real view hierarchy. Does nothing if the stack is laid out already.
+     */
+    static void layout(View stack) {
+        if (stack.isLayoutRequested() || stack.getWidth() == 0) {
+            stack.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            stack.layout(0, 0, WIDTH, HEIGHT);
+        }
+    }
+
+    /**
+     * Plain, opaque pages, one color per position.
+     */
+    static class ColorAdapter extends PagerAdapter {
+
+        @Override
+        public int getCount() {
+            return PAGE_COUNT;
+        }
+
+        @Override
+        public Object instantiateItem(ViewGroup container, int position) {
+            final View page = new FrameLayout(container.getContext());
+            page.setBackgroundColor(0xff000000 | (position * 0x080808));
+            container.addView(page);
+            return page;
+        }
+
+        @Override
+        public void destroyItem(ViewGroup container, int position, Object object) {
+            container.removeView((View) object);
+        }
+
+        @Override
+        public boolean isViewFromObject(View view, Object object) {
+            return view == object;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.app.Activity;
+import android.support.v4.view.ViewPager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.DRAG_FRAMES;
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.FRAME_DURATION;
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.HEIGHT;
+import static com.bartoszlipinski.flippablestackview.StackTestFixture.START_ITEM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scripted flips of a <code>FlippableStackView</code>, checked against its
+ * {@link PagerWorkCounters}. Each scenario runs for a few stack depths. The counts are bounded
+ * by the pages in the window and the frames and layout passes the scenario went through, so
+ * work done per page more often than once a frame or layout fails the test.
+ * <p/>
+ * Run with <code>-D{@value #REPORT_PROPERTY}=true</code> to print the counts, e.g. to
+ * compare them before and after a change.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class FlippableStackViewScenarioTest {
+
+    private static final int[] STACK_DEPTHS = {1, 3, 5};
+    private static final int MAX_SETTLE_FRAMES = 300;
+    static final String REPORT_PROPERTY = "flippablestackview.reportCounters";
+
+    @Test
+    public void fakeDragFlipsOnePage() {
+        for (int depth : STACK_DEPTHS) {
+            final Scenario scenario = new Scenario(depth);
+            scenario.mStack.beginFakeDrag();
+            final float step = StackTestFixture.getDragStep(HEIGHT);
+            for (int i = 0; i < DRAG_FRAMES; i++) {
+                scenario.frame();
+                scenario.drag(step);
+            }
+            scenario.mStack.endFakeDrag();
+            scenario.settle();
+            scenario.check("fakeDrag", 1);
+        }
+    }
+
+    @Test
+    public void smoothScrollByOnePage() {
+        for (int depth : STACK_DEPTHS) {
+            final Scenario scenario = new Scenario(depth);
+            scenario.mStack.setCurrentItem(START_ITEM + 1, true);
+            scenario.settle();
+            scenario.check("setCurrentItem+1", 1);
+        }
+    }
+
+    @Test
+    public void smoothScrollByThreePages() {
+        for (int depth : STACK_DEPTHS) {
+            final Scenario scenario = new Scenario(depth);
+            scenario.mStack.setCurrentItem(START_ITEM + 3, true);
+            scenario.settle();
+            scenario.check("setCurrentItem+3", 3);
+        }
+    }
+
+    private static class Scenario extends ViewPager.SimpleOnPageChangeListener {
+        private final FlippableStackView mStack;
+        private final int mDepth;
+        private boolean mIdle = true;
+        private int mMaxPageCount;
+        private int mFrameCount;
+        private int mDragCount;
+        private int mLayoutCount;
+
+        Scenario(int depth) {
+            mDepth = depth;
+            final Activity activity = Robolectric.setupActivity(Activity.class);
+            mStack = new FlippableStackView(activity);
+            mStack.initStack(depth);
+            // Keeps the counts down to the pages the flip itself needs
+            mStack.setPagePrefetchEnabled(false);
+            mStack.setAdapter(new StackTestFixture.ColorAdapter());
+            mStack.setOnPageChangeListener(this);
+            activity.setContentView(mStack);
+            mStack.setCurrentItem(START_ITEM, false);
+            StackTestFixture.layout(mStack);
+            mStack.getWorkCounters().reset();
+            mMaxPageCount = mStack.getChildCount();
+        }
+
+        @Override
+        public void onPageScrollStateChanged(int state) {
+            mIdle = state == OrientedViewPager.SCROLL_STATE_IDLE;
+        }
+
+        void layout() {
+            if (mStack.isLayoutRequested()) {
+                mLayoutCount++;
+            }
+            StackTestFixture.layout(mStack);
+            mMaxPageCount = Math.max(mMaxPageCount, mStack.getChildCount());
+        }
+
+        void frame() {
+            mFrameCount++;
+            ShadowLooper.idleMainLooper(FRAME_DURATION);
+            mStack.computeScroll();
+            layout();
+        }
+
+        void drag(float offset) {
+            mDragCount++;
+            mStack.fakeDragBy(offset);
+        }
+
+        void settle() {
+            for (int i = 0; i < MAX_SETTLE_FRAMES && !mIdle; i++) {
+                frame();
+            }
+            // Runs the end of the scroll posted by the last frame
+            ShadowLooper.idleMainLooper(FRAME_DURATION);
+            layout();
+        }
+
+        void check(String name, int shift) {
+            final PagerWorkCounters counters = mStack.getWorkCounters();
+            final String report = name + " depth=" + mDepth + " pages=" + mMaxPageCount
+                    + " frames=" + mFrameCount + " drags=" + mDragCount + " layouts=" + mLayoutCount
+                    + " " + counters;
+            if (Boolean.getBoolean(REPORT_PROPERTY)) {
+                System.out.println(report);
+            }
+            assertTrue(name + " didn't settle", mIdle);
+            assertEquals(name + " ended on a wrong page", shift, Math.abs(mStack.getCurrentItem() - START_ITEM));
+            assertTrue(name + " instantiated more pages than the window moved by: " + report,
+                    counters.getInstantiateCount() <= shift);
+            assertTrue(name + " destroyed more pages than the window moved by: " + report,
+                    counters.getDestroyCount() <= shift);
+            // Each layout pass populates once. Changing the current item and ending the settle
+            // populate too, at most once per page the window moved by.
+            assertTrue(name + " populated more than once a layout pass: " + report,
+                    counters.getPopulateCount() <= mLayoutCount + shift + 2);
+            // Each page is measured once a layout pass, and once more when it's un-culled.
+            assertTrue(name + " measured a page more than once a layout pass: " + report,
+                    counters.getPageMeasureCount() <= mMaxPageCount * (mLayoutCount + 2));
+            // Each scroll and layout pass transforms the window once, and the pages laid out
+            // during the pass once more.
+            assertTrue(name + " transformed a page more than once a pass: " + report,
+                    counters.getTransformedPageCount()
+                            <= 2 * mMaxPageCount * (mFrameCount + mDragCount + mLayoutCount + 1));
+        }
+    }
+}
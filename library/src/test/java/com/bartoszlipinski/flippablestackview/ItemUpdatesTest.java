@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015 Bartosz Lipinski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bartoszlipinski.flippablestackview;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Fine-grained updates of a {@link RecyclingStackAdapter}, batched with
+ * {@link RecyclingStackAdapter#beginBatchedUpdates()}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ItemUpdatesTest {
+
+    private static final int PAGE_COUNT = 10;
+    private static final int CHANGED_ITEM = 5;
+
+    @Test
+    public void changeBeforeInsertRebindsWithFinalPosition() {
+        final List<String> items = new ArrayList<String>();
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            items.add("item " + i);
+        }
+        final TextAdapter adapter = new TextAdapter(items);
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final FlippableStackView stack = new FlippableStackView(activity);
+        stack.initStack(2);
+        stack.setAdapter(adapter);
+        stack.setCurrentItem(CHANGED_ITEM, false);
+        activity.setContentView(stack);
+        StackTestFixture.layout(stack);
+        final TextView page = findPage(stack, "item " + CHANGED_ITEM);
+        assertNotNull(page);
+
+        items.set(CHANGED_ITEM, "changed");
+        items.add(0, "inserted");
+        adapter.beginBatchedUpdates();
+        adapter.notifyItemChanged(CHANGED_ITEM);
+        adapter.notifyItemInserted(0);
+        adapter.endBatchedUpdates();
+        StackTestFixture.layout(stack);
+
+        assertEquals("changed", page.getText().toString());
+        assertEquals(CHANGED_ITEM + 1, stack.getCurrentItem());
+    }
+
+    private static TextView findPage(ViewGroup stack, String text) {
+        for (int i = 0; i < stack.getChildCount(); i++) {
+            final View child = stack.getChildAt(i);
+            if (child instanceof TextView && text.equals(((TextView) child).getText().toString())) {
+                return (TextView) child;
+            }
+        }
+        return null;
+    }
+
+    private static class TextAdapter extends RecyclingStackAdapter {
+        private final List<String> mItems;
+
+        TextAdapter(List<String> items) {
+            mItems = items;
+        }
+
+        @Override
+        public int getCount() {
+            return mItems.size();
+        }
+
+        @Override
+        public View onCreateView(ViewGroup parent, int viewType) {
+            return new TextView(parent.getContext());
+        }
+
+        @Override
+        public void onBindView(View view, int position) {
+            ((TextView) view).setText(mItems.get(position));
+        }
+    }
+}